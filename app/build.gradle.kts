@@ -29,6 +29,15 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+
+    testOptions {
+        // android.util.Log and friends return defaults in local unit tests
+        unitTests.isReturnDefaultValues = true
+        unitTests.all {
+            // JMH benchmarks are skipped unless run with -Pbenchmark
+            it.systemProperty("benchmark", project.hasProperty("benchmark"))
+        }
+    }
     
     packaging {
         resources {
@@ -43,6 +52,10 @@ dependencies {
     implementation(libs.appcompat)
     implementation(libs.material)
     testImplementation(libs.junit)
+    // In-memory stand-in backend for offline sync and alert runs
+    testImplementation("com.squareup.okhttp3:mockwebserver:3.14.9")
+    testImplementation("org.openjdk.jmh:jmh-core:1.37")
+    testAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 
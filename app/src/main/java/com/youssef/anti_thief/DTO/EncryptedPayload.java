@@ -9,6 +9,10 @@ public class EncryptedPayload {
     private String data;
     private String deviceId;
     private long timestamp;
+    // Set to "gzip" when data was compressed before encryption; null otherwise
+    private String encoding;
+    // Set to "location-batch-v1" when data is a binary batch; null means JSON
+    private String format;
 
     public EncryptedPayload(String encryptedData, String deviceId) {
         this.data = encryptedData;
@@ -39,4 +43,20 @@ public class EncryptedPayload {
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
 }
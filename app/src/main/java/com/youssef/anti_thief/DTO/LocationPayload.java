@@ -5,6 +5,9 @@ public class LocationPayload {
     public double longitude;
     public String deviceId;
     public long timestamp;
+    // Only set for dwell records; left null so plain fixes serialize as before
+    public Integer dwellCount;
+    public Long dwellUntil;
 
     public LocationPayload(double lat, double lng, String id) {
         this.latitude = lat;
@@ -38,6 +38,18 @@ public class Config {
         return configManager != null ? configManager.getApiKey() : "";
     }
 
+    /**
+     * Whether synced pages are thinned with TrajectorySimplifier. Off by
+     * default: the whole raw page is acknowledged, so dropped fixes are gone.
+     */
+    public static boolean isSyncSimplifyEnabled() {
+        return configManager != null && configManager.isSyncSimplifyEnabled();
+    }
+
+    public static float getSyncSimplifyToleranceMeters() {
+        return configManager != null ? configManager.getSyncSimplifyToleranceMeters() : 0f;
+    }
+
     public static boolean isSetupComplete() {
         return configManager != null && configManager.isSetupComplete();
     }
@@ -14,6 +14,9 @@ public class ConfigManager {
     private static final String KEY_AES_KEY = "aes_key";
     private static final String KEY_API_KEY = "api_key";
     private static final String KEY_SETUP_COMPLETE = "setup_complete";
+    private static final String KEY_SYNC_SIMPLIFY = "sync_simplify";
+    private static final String KEY_SYNC_SIMPLIFY_TOLERANCE_M = "sync_simplify_tolerance_m";
+    private static final float DEFAULT_SYNC_SIMPLIFY_TOLERANCE_M = 5f;
 
     private final SharedPreferences prefs;
 
@@ -67,6 +70,21 @@ public class ConfigManager {
         return prefs.getString(KEY_API_KEY, "");
     }
 
+    public boolean isSyncSimplifyEnabled() {
+        return prefs.getBoolean(KEY_SYNC_SIMPLIFY, false);
+    }
+
+    public float getSyncSimplifyToleranceMeters() {
+        return prefs.getFloat(KEY_SYNC_SIMPLIFY_TOLERANCE_M, DEFAULT_SYNC_SIMPLIFY_TOLERANCE_M);
+    }
+
+    public void setSyncSimplify(boolean enabled, float toleranceMeters) {
+        prefs.edit()
+                .putBoolean(KEY_SYNC_SIMPLIFY, enabled)
+                .putFloat(KEY_SYNC_SIMPLIFY_TOLERANCE_M, toleranceMeters)
+                .apply();
+    }
+
     public void clearConfig() {
         prefs.edit().clear().apply();
     }
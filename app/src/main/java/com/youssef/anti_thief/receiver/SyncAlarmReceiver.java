@@ -0,0 +1,24 @@
+package com.youssef.anti_thief.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.youssef.anti_thief.service.TrackingService;
+
+/**
+ * Receives the sync alarm TrackingService arms. AlarmManager only keeps the
+ * device awake while onReceive runs, so the SYNC lease is taken here before
+ * the service is asked to sync.
+ */
+public class SyncAlarmReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "SyncAlarmReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Log.d(TAG, "Sync alarm fired");
+        TrackingService.startSyncFromAlarm(context);
+    }
+}
@@ -0,0 +1,166 @@
+package com.youssef.anti_thief.service;
+
+import android.util.Log;
+
+import com.youssef.anti_thief.config.Config;
+import com.youssef.anti_thief.utils.GzipCompression;
+import com.youssef.anti_thief.utils.LocationBatchCodec;
+import com.youssef.anti_thief.utils.SealedEnvelope;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Process-wide HTTP stack. Every caller shares one OkHttpClient, so its
+ * connection pool, dispatcher and threads are created once and an alert can
+ * reuse a warm TLS (and HTTP/2, when the server offers it) connection left by
+ * the last sync instead of doing a full handshake.
+ * The API key is read from Config on each request, so a key changed in
+ * setup applies without rebuilding anything.
+ *
+ * Request compression is negotiated: a server that can inflate request
+ * bodies says so with an ACCEPT_REQUEST_ENCODING_HEADER response header, and
+ * callers only compress once that has been seen. The binary location batch
+ * format, and the binary SealedEnvelope on the secure endpoint, are
+ * negotiated the same way through ACCEPT_BATCH_FORMAT_HEADER.
+ */
+public final class ApiClient {
+
+    private static final String TAG = "ApiClient";
+    private static final String API_KEY_HEADER = "X-API-Key";
+    public static final String ACCEPT_REQUEST_ENCODING_HEADER = "X-Accept-Request-Encoding";
+    public static final String ACCEPT_BATCH_FORMAT_HEADER = "X-Accept-Batch-Format";
+    public static final String SEGMENT_ID_HEADER = "X-Segment-Id";
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+    private static final long READ_WRITE_TIMEOUT_SECONDS = 30;
+
+    private static OkHttpClient httpClient;
+    private static ApiService apiService;
+    private static String apiServiceBaseUrl;
+    private static volatile boolean requestGzipSupported;
+    private static volatile boolean binaryBatchSupported;
+    private static volatile boolean sealedEnvelopeSupported;
+
+    private ApiClient() {
+    }
+
+    public static synchronized OkHttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .readTimeout(READ_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .writeTimeout(READ_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .retryOnConnectionFailure(true)
+                    .addInterceptor(chain -> {
+                        Request request = chain.request();
+                        String apiKey = Config.getApiKey();
+                        if (apiKey != null && !apiKey.isEmpty() && request.header(API_KEY_HEADER) == null) {
+                            request = request.newBuilder().header(API_KEY_HEADER, apiKey).build();
+                        }
+                        Response response = chain.proceed(request);
+                        String accepted = response.header(ACCEPT_REQUEST_ENCODING_HEADER);
+                        if (accepted != null) {
+                            setRequestGzipSupported(hasToken(accepted, GzipCompression.ENCODING));
+                        }
+                        String formats = response.header(ACCEPT_BATCH_FORMAT_HEADER);
+                        if (formats != null) {
+                            setBinaryBatchSupported(hasToken(formats, LocationBatchCodec.FORMAT));
+                            setSealedEnvelopeSupported(hasToken(formats, SealedEnvelope.FORMAT));
+                        }
+                        return response;
+                    })
+                    .build();
+        }
+        return httpClient;
+    }
+
+    /**
+     * True if the comma-separated header value lists token exactly, so that
+     * e.g. "location-batch-v10" does not advertise "location-batch-v1".
+     */
+    static boolean hasToken(String header, String token) {
+        for (String value : header.split(",")) {
+            if (value.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True once the server has advertised that it accepts gzip request bodies.
+     */
+    public static boolean isRequestGzipSupported() {
+        return requestGzipSupported;
+    }
+
+    /**
+     * Updates the negotiated capability, e.g. to drop gzip after the server rejected it.
+     */
+    public static void setRequestGzipSupported(boolean supported) {
+        if (requestGzipSupported != supported) {
+            Log.d(TAG, "Server gzip request support: " + supported);
+        }
+        requestGzipSupported = supported;
+    }
+
+    /**
+     * True once the server has advertised that it accepts {@link LocationBatchCodec} batches.
+     */
+    public static boolean isBinaryBatchSupported() {
+        return binaryBatchSupported;
+    }
+
+    public static void setBinaryBatchSupported(boolean supported) {
+        if (binaryBatchSupported != supported) {
+            Log.d(TAG, "Server binary batch support: " + supported);
+        }
+        binaryBatchSupported = supported;
+    }
+
+    /**
+     * True once the server has advertised that its secure endpoint accepts
+     * {@link SealedEnvelope} octet-stream bodies.
+     */
+    public static boolean isSealedEnvelopeSupported() {
+        return sealedEnvelopeSupported;
+    }
+
+    public static void setSealedEnvelopeSupported(boolean supported) {
+        if (sealedEnvelopeSupported != supported) {
+            Log.d(TAG, "Server sealed envelope support: " + supported);
+        }
+        sealedEnvelopeSupported = supported;
+    }
+
+    /**
+     * Returns the Retrofit service for the configured server, rebuilt only when
+     * the server URL changes. Returns null until a server URL is configured.
+     */
+    public static synchronized ApiService getApiService() {
+        String serverUrl = Config.getServerUrl();
+        if (serverUrl == null || serverUrl.isEmpty()) {
+            return null;
+        }
+        if (apiService == null || !serverUrl.equals(apiServiceBaseUrl)) {
+            Retrofit retrofit = new Retrofit.Builder()
+                    .baseUrl(serverUrl)
+                    .client(getHttpClient())
+                    .addConverterFactory(GsonConverterFactory.create())
+                    .build();
+            apiService = retrofit.create(ApiService.class);
+            apiServiceBaseUrl = serverUrl;
+            Log.d(TAG, "API service created for " + serverUrl);
+        }
+        return apiService;
+    }
+}
@@ -5,9 +5,11 @@ import com.youssef.anti_thief.DTO.LocationPayload;
 
 import java.util.List;
 
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
+import retrofit2.http.Header;
 import retrofit2.http.POST;
 
 public interface ApiService {
@@ -15,6 +17,32 @@ public interface ApiService {
     @POST("api/location")
     Call<ResponseBody> sendLocationBatch(@Body List<LocationPayload> payloads);
 
+    /**
+     * Same endpoint with a pre-serialized body, e.g. gzip JSON with contentEncoding "gzip".
+     */
+    @POST("api/location")
+    Call<ResponseBody> sendLocationBatch(@Header("Content-Encoding") String contentEncoding, @Body RequestBody body);
+
+    /**
+     * Binary batch, see LocationBatchCodec. Only used once the server has advertised it.
+     */
+    @POST("api/location/batch")
+    Call<ResponseBody> sendBinaryLocationBatch(@Body RequestBody body);
+
     @POST("api/secure/location")
     Call<ResponseBody> sendEncryptedLocation(@Body EncryptedPayload payload);
+
+    /**
+     * Same endpoint with a pre-built envelope: the streaming EncryptedLocationsBody,
+     * or an application/octet-stream SealedEnvelope.
+     */
+    @POST("api/secure/location")
+    Call<ResponseBody> sendEncryptedLocation(@Body RequestBody body);
+
+    /**
+     * A persisted SealedSegmentStore segment. Retries post the same bytes under
+     * the same segment id, so the server can drop a repeat without decrypting it.
+     */
+    @POST("api/secure/location")
+    Call<ResponseBody> sendSealedSegment(@Header(ApiClient.SEGMENT_ID_HEADER) String segmentId, @Body RequestBody body);
 }
@@ -0,0 +1,155 @@
+package com.youssef.anti_thief.service;
+
+import android.util.Log;
+
+import com.youssef.anti_thief.utils.LocationCache;
+import com.youssef.anti_thief.utils.LocationColumns;
+import com.youssef.anti_thief.utils.SealedSegmentStore;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drains the unsynced part of the location cache in bounded pages, with up to
+ * maxInFlight uploads running at once.
+ *
+ * Pages are acknowledged strictly in order: the sync cursor only ever covers a
+ * contiguous prefix the server accepted, so a failure, crash or restart
+ * resumes from the first page that was not acknowledged. Pages after a failed
+ * one may already have reached the server and are sent again on the next
+ * drain, so the server must treat repeated fixes as duplicates.
+ *
+ * With a {@link SealedSegmentStore}, a page that was sealed on an earlier
+ * attempt is re-read with exactly the sealed range, so the sender can post the
+ * stored ciphertext again instead of rebuilding it; segments are dropped once
+ * their page is acknowledged.
+ */
+public class BacklogUploader {
+
+    private static final String TAG = "BacklogUploader";
+
+    public interface PageSender {
+        /**
+         * Uploads one page and returns true once the server accepted it.
+         * Called concurrently from the upload threads.
+         */
+        boolean send(LocationColumns page) throws Exception;
+    }
+
+    /**
+     * Outcome of one drain.
+     */
+    public static class Result {
+        public final int pages;
+        public final int acknowledgedFixes;
+        public final boolean failed;
+
+        Result(int pages, int acknowledgedFixes, boolean failed) {
+            this.pages = pages;
+            this.acknowledgedFixes = acknowledgedFixes;
+            this.failed = failed;
+        }
+    }
+
+    private static final class Pending {
+        final LocationColumns page;
+        final Future<Boolean> result;
+
+        Pending(LocationColumns page, Future<Boolean> result) {
+            this.page = page;
+            this.result = result;
+        }
+    }
+
+    private final LocationCache cache;
+    private final PageSender sender;
+    private final SealedSegmentStore segments;
+    private final int pageSize;
+    private final int maxInFlight;
+    private final ExecutorService executor;
+
+    public BacklogUploader(LocationCache cache, PageSender sender, int pageSize, int maxInFlight) {
+        this(cache, sender, null, pageSize, maxInFlight);
+    }
+
+    public BacklogUploader(LocationCache cache, PageSender sender, SealedSegmentStore segments, int pageSize, int maxInFlight) {
+        this.cache = cache;
+        this.sender = sender;
+        this.segments = segments;
+        this.pageSize = pageSize;
+        this.maxInFlight = maxInFlight;
+        this.executor = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "BacklogUpload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Uploads up to maxPages pages starting at the sync cursor and blocks until
+     * every page it started has finished. Stops starting new pages after the
+     * first failure.
+     */
+    public Result drain(int maxPages) {
+        ArrayDeque<Pending> inFlight = new ArrayDeque<>(maxInFlight);
+        long nextSeq = cache.getSyncCursor();
+        int pages = 0;
+        int acknowledged = 0;
+        boolean failed = false;
+        if (segments != null) {
+            int stale = segments.discardBefore(nextSeq);
+            if (stale > 0) {
+                Log.d(TAG, "Dropped " + stale + " sealed segments behind the sync cursor");
+            }
+        }
+
+        while (true) {
+            while (!failed && inFlight.size() < maxInFlight && pages < maxPages) {
+                LocationColumns page = new LocationColumns();
+                SealedSegmentStore.Segment segment = segments == null ? null : segments.find(nextSeq);
+                cache.readFrom(nextSeq, segment == null ? pageSize : segment.getFixCount(), page);
+                if (page.isEmpty()) {
+                    break;
+                }
+                nextSeq = page.getLastSeq() + 1;
+                pages++;
+                inFlight.add(new Pending(page, executor.submit(() -> sender.send(page))));
+            }
+            if (inFlight.isEmpty()) {
+                break;
+            }
+
+            Pending oldest = inFlight.poll();
+            boolean accepted = false;
+            try {
+                accepted = oldest.result.get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Page upload failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (accepted && !failed) {
+                cache.acknowledgeThrough(oldest.page.getLastSeq());
+                acknowledged += oldest.page.size();
+                if (segments != null) {
+                    segments.discardBefore(oldest.page.getLastSeq() + 1);
+                }
+            } else {
+                failed = true;
+            }
+        }
+
+        if (pages > 0) {
+            Log.d(TAG, "Drained " + pages + " pages, acknowledged " + acknowledged + " fixes" + (failed ? ", stopped on failure" : ""));
+        }
+        return new Result(pages, acknowledged, failed);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,116 @@
+package com.youssef.anti_thief.service;
+
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.youssef.anti_thief.utils.AESEncryption;
+import com.youssef.anti_thief.utils.GzipCompression;
+import com.youssef.anti_thief.utils.LocationColumns;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Streams a location batch to the secure endpoint as the same JSON envelope
+ * EncryptedPayload produces, without ever holding the batch in memory.
+ * Points are written with a JsonWriter straight from the columns, through
+ * optional gzip, the AES-GCM cipher and a Base64 encoder into the OkHttp sink:
+ *
+ *   {"deviceId":..., "timestamp":..., ["encoding":"gzip",] "data":"Base64(IV + ciphertext)"}
+ *
+ * Peak memory is a few stream buffers whatever the batch size. Each write
+ * uses a fresh IV, so the body can safely be written again on a retry.
+ */
+class EncryptedLocationsBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+
+    private final LocationColumns points;
+    private final String envelopeDeviceId;
+    private final boolean gzip;
+    private final Gson gson = new Gson();
+
+    EncryptedLocationsBody(LocationColumns points, String envelopeDeviceId, boolean gzip) {
+        this.points = points;
+        this.envelopeDeviceId = envelopeDeviceId;
+        this.gzip = gzip;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        byte[] iv = new byte[AESEncryption.GCM_IV_LENGTH];
+        Cipher cipher;
+        try {
+            cipher = AESEncryption.newEncryptCipher(iv);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot initialize cipher", e);
+        }
+        if (cipher == null) {
+            throw new IOException("AES key not configured");
+        }
+
+        sink.writeUtf8("{\"deviceId\":").writeUtf8(gson.toJson(envelopeDeviceId));
+        sink.writeUtf8(",\"timestamp\":").writeUtf8(Long.toString(System.currentTimeMillis()));
+        if (gzip) {
+            sink.writeUtf8(",\"encoding\":\"" + GzipCompression.ENCODING + "\"");
+        }
+        sink.writeUtf8(",\"data\":\"");
+
+        // NO_CLOSE keeps the sink open when the chain is closed to flush the GCM tag
+        OutputStream base64 = new Base64OutputStream(sink.outputStream(), Base64.NO_WRAP | Base64.NO_CLOSE);
+        base64.write(iv);
+        OutputStream plaintext = new CipherOutputStream(base64, cipher);
+        if (gzip) {
+            plaintext = new GZIPOutputStream(plaintext, BUFFER_SIZE);
+        }
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(plaintext, StandardCharsets.UTF_8), BUFFER_SIZE))) {
+            writePoints(writer);
+        }
+
+        sink.writeUtf8("\"}");
+    }
+
+    /**
+     * Same shape as a Gson-serialized List of LocationPayload.
+     */
+    private void writePoints(JsonWriter writer) throws IOException {
+        String deviceId = points.getDeviceId();
+        writer.beginArray();
+        for (int i = 0; i < points.size(); i++) {
+            writer.beginObject();
+            writer.name("latitude").value(points.getLatitude(i));
+            writer.name("longitude").value(points.getLongitude(i));
+            if (deviceId != null) {
+                writer.name("deviceId").value(deviceId);
+            }
+            writer.name("timestamp").value(points.getTimestamp(i));
+            if (points.isDwell(i)) {
+                writer.name("dwellCount").value(points.getCount(i));
+                writer.name("dwellUntil").value(points.getEndTimestamp(i));
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+}
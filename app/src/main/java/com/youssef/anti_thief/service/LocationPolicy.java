@@ -0,0 +1,128 @@
+package com.youssef.anti_thief.service;
+
+import com.youssef.anti_thief.utils.DwellCompactor;
+
+/**
+ * Picks how often, and how precisely, TrackingService asks for location.
+ * Movement is judged from consecutive fixes: the reported speed, or the
+ * displacement over time when it exceeds both fixes' accuracy (so GPS jitter
+ * on a desk does not count as moving).
+ *
+ * Switching is hysteresis-controlled so a noisy fix does not flip the
+ * request back and forth:
+ * - any sign of movement leaves STATIONARY at once, a thief walking off must not wait;
+ * - FAST needs FAST_STREAK fast fixes in a row and is left after SLOW_STREAK slow ones;
+ * - STATIONARY is only entered after STATIONARY_HOLD_MS without leaving the radius.
+ *
+ * Each mode also sets how long the provider may hold fixes back and deliver
+ * them as one batch. Batching saves wakeups but delays everything downstream,
+ * including the policy itself noticing a change of mode, by up to that long.
+ */
+public class LocationPolicy {
+
+    public enum Mode {
+        STATIONARY(3 * 60 * 1000L, false, 9 * 60 * 1000L),
+        MOVING(60 * 1000L, true, 5 * 60 * 1000L),
+        FAST(20 * 1000L, true, 2 * 60 * 1000L);
+
+        public final long intervalMs;
+        public final boolean highAccuracy;
+        public final long maxUpdateDelayMs;
+
+        Mode(long intervalMs, boolean highAccuracy, long maxUpdateDelayMs) {
+            this.intervalMs = intervalMs;
+            this.highAccuracy = highAccuracy;
+            this.maxUpdateDelayMs = maxUpdateDelayMs;
+        }
+    }
+
+    private static final double STILL_SPEED = 0.5;
+    private static final double MOVING_SPEED = 1.0;
+    private static final double SLOW_SPEED = 4.0;
+    private static final double FAST_SPEED = 7.0;
+    private static final double STATIONARY_RADIUS_M = 50;
+    private static final long STATIONARY_HOLD_MS = 5 * 60 * 1000L;
+    private static final int FAST_STREAK = 2;
+    private static final int SLOW_STREAK = 3;
+
+    private Mode mode = Mode.MOVING;
+
+    private boolean hasLast;
+    private long lastTime;
+    private double lastLat;
+    private double lastLng;
+    private float lastAccuracy;
+
+    private int fastStreak;
+    private int slowStreak;
+    private long stillSince = -1;
+    private double anchorLat;
+    private double anchorLng;
+
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Feeds one fix; speed is the reported speed in m/s, or negative when unknown.
+     * Returns true when the mode changed and the location request should be rebuilt.
+     */
+    public synchronized boolean onFix(long time, double latitude, double longitude, float accuracy, float speed) {
+        double derived = 0;
+        if (hasLast && time > lastTime) {
+            double distance = DwellCompactor.distanceMeters(lastLat, lastLng, latitude, longitude);
+            if (distance > accuracy + lastAccuracy) {
+                derived = distance / ((time - lastTime) / 1000.0);
+            }
+        }
+        double velocity = Math.max(derived, speed);
+        hasLast = true;
+        lastTime = time;
+        lastLat = latitude;
+        lastLng = longitude;
+        lastAccuracy = accuracy;
+
+        Mode next = mode;
+        switch (mode) {
+            case STATIONARY:
+                double radius = Math.max(STATIONARY_RADIUS_M, accuracy);
+                if (velocity >= MOVING_SPEED
+                        || DwellCompactor.distanceMeters(anchorLat, anchorLng, latitude, longitude) > radius) {
+                    next = Mode.MOVING;
+                }
+                break;
+            case MOVING:
+                fastStreak = velocity >= FAST_SPEED ? fastStreak + 1 : 0;
+                if (fastStreak >= FAST_STREAK) {
+                    next = Mode.FAST;
+                } else if (velocity < STILL_SPEED) {
+                    if (stillSince < 0 || DwellCompactor.distanceMeters(anchorLat, anchorLng, latitude, longitude)
+                            > Math.max(STATIONARY_RADIUS_M, accuracy)) {
+                        stillSince = time;
+                        anchorLat = latitude;
+                        anchorLng = longitude;
+                    } else if (time - stillSince >= STATIONARY_HOLD_MS) {
+                        next = Mode.STATIONARY;
+                    }
+                } else {
+                    stillSince = -1;
+                }
+                break;
+            case FAST:
+                slowStreak = velocity < SLOW_SPEED ? slowStreak + 1 : 0;
+                if (slowStreak >= SLOW_STREAK) {
+                    next = Mode.MOVING;
+                }
+                break;
+        }
+
+        if (next == mode) {
+            return false;
+        }
+        mode = next;
+        fastStreak = 0;
+        slowStreak = 0;
+        stillSince = -1;
+        return true;
+    }
+}
@@ -0,0 +1,287 @@
+package com.youssef.anti_thief.service;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.youssef.anti_thief.DTO.EncryptedPayload;
+import com.youssef.anti_thief.DTO.LocationPayload;
+import com.youssef.anti_thief.config.Config;
+import com.youssef.anti_thief.utils.AESEncryption;
+import com.youssef.anti_thief.utils.GzipCompression;
+import com.youssef.anti_thief.utils.LocationBatchCodec;
+import com.youssef.anti_thief.utils.LocationColumns;
+import com.youssef.anti_thief.utils.SealedEnvelope;
+import com.youssef.anti_thief.utils.SealedSegmentStore;
+import com.youssef.anti_thief.utils.TrajectorySimplifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Sends backlog pages to the server in the best format it has advertised
+ * through ApiClient: a persisted sealed segment, a binary batch (raw or in
+ * the encrypted envelope), or a JSON batch (streamed through AES-GCM, or
+ * plain with optional gzip). A format the server turns down is dropped and
+ * the page is resent in the next one.
+ */
+class LocationUploader implements BacklogUploader.PageSender {
+
+    private static final String TAG = "LocationUploader";
+    // With simplification enabled, a point is still kept at least every 5 minutes
+    private static final long SYNC_MAX_GAP_MS = 5 * 60 * 1000L;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+    private static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+    private static final MediaType BINARY_BATCH = MediaType.parse(LocationBatchCodec.CONTENT_TYPE);
+    private static final MediaType SEALED_ENVELOPE = MediaType.parse(SealedEnvelope.CONTENT_TYPE);
+
+    private final SealedSegmentStore segments;
+    private final String deviceId;
+
+    /**
+     * @param segments where sealed pages are kept until acknowledged; the same store BacklogUploader uses
+     * @param deviceId the id put on encrypted envelopes
+     */
+    LocationUploader(SealedSegmentStore segments, String deviceId) {
+        this.segments = segments;
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Uploads one backlog page; runs on a BacklogUploader thread, which
+     * acknowledges the page once every page before it has been accepted too.
+     * The whole raw page counts as delivered, including any fixes an opt-in
+     * simplification dropped.
+     */
+    @Override
+    public boolean send(LocationColumns page) {
+        ApiService apiService = ApiClient.getApiService();
+        if (apiService == null) {
+            Log.e(TAG, "Server URL not configured, skipping sync");
+            return false;
+        }
+
+        String aesKey = Config.getAesKey();
+        boolean encrypted = aesKey != null && !aesKey.isEmpty();
+        if (encrypted && ApiClient.isBinaryBatchSupported() && ApiClient.isSealedEnvelopeSupported()) {
+            return sendSealedSegment(apiService, page);
+        }
+        SealedSegmentStore.Segment stale = segments.find(page.getSeq(0));
+        if (stale != null) {
+            // Sealed before the server stopped taking sealed envelopes
+            segments.discard(stale);
+        }
+
+        LocationColumns simplified = simplify(page);
+        return ApiClient.isBinaryBatchSupported()
+                ? sendBinaryBatch(apiService, simplified, encrypted)
+                : sendJsonBatch(apiService, simplified, encrypted);
+    }
+
+    /**
+     * Returns the page thinned to within the configured tolerance, or the page
+     * itself unless simplification was enabled in Config.
+     */
+    private LocationColumns simplify(LocationColumns page) {
+        float tolerance = Config.getSyncSimplifyToleranceMeters();
+        if (!Config.isSyncSimplifyEnabled() || tolerance <= 0) {
+            Log.d(TAG, "Sending page of " + page.size() + " locations (seq " + page.getSeq(0) + "-" + page.getLastSeq() + ")");
+            return page;
+        }
+        LocationColumns simplified = new LocationColumns();
+        new TrajectorySimplifier(tolerance, SYNC_MAX_GAP_MS).simplify(page, simplified);
+        Log.d(TAG, "Sending page of " + simplified.size() + "/" + page.size() + " locations (seq " + page.getSeq(0) + "-" + page.getLastSeq() + ")");
+        return simplified;
+    }
+
+    /**
+     * Sends the page as a sealed segment: encoded and sealed once,
+     * persisted, then posted verbatim on every attempt until the server accepts
+     * it. BacklogUploader drops the segment once the page is acknowledged.
+     */
+    private boolean sendSealedSegment(ApiService apiService, LocationColumns page) {
+        try {
+            SealedSegmentStore.Segment segment = segments.find(page.getSeq(0));
+            if (segment != null && (segment.lastSeq != page.getLastSeq() || segment.firstTimestamp != page.getTimestamp(0))) {
+                Log.w(TAG, "Sealed segment " + segment.id + " no longer matches the cache, resealing");
+                segments.discard(segment);
+                segment = null;
+            }
+            if (segment == null) {
+                byte[] batch = LocationBatchCodec.encode(simplify(page));
+                byte[] envelope = SealedEnvelope.seal(deviceId, System.currentTimeMillis(),
+                        SealedEnvelope.FLAG_BINARY_BATCH, batch);
+                segment = segments.put(page.getSeq(0), page.getLastSeq(), page.getTimestamp(0), envelope);
+                Log.d(TAG, "Sealed segment " + segment.id + ": " + page.size() + " locations in " + envelope.length + " bytes");
+            } else {
+                Log.d(TAG, "Resending sealed segment " + segment.id + " (seq " + segment.firstSeq + "-" + segment.lastSeq + ")");
+            }
+
+            RequestBody body = RequestBody.create(SEALED_ENVELOPE, segment.file);
+            Response<ResponseBody> response = apiService.sendSealedSegment(segment.id, body).execute();
+            closeBody(response);
+            if (response.isSuccessful() && response.code() == 200) {
+                Log.d(TAG, "Sealed segment " + segment.id + " accepted (200)");
+                return true;
+            }
+            if (response.code() == HTTP_UNSUPPORTED_MEDIA_TYPE) {
+                Log.w(TAG, "Server rejected sealed envelopes, resending as Base64 JSON");
+                ApiClient.setSealedEnvelopeSupported(false);
+                // Only this page's segment: other pages in flight own theirs and drop them the same way
+                segments.discard(segment);
+                return sendBinaryBatch(apiService, simplify(page), true);
+            }
+            if (response.code() == HTTP_BAD_REQUEST) {
+                // The server cannot open it, e.g. the key changed since it was sealed
+                Log.w(TAG, "Server could not open sealed segment " + segment.id + ", resealing on the next sync");
+                segments.discard(segment);
+            }
+            Log.e(TAG, "Sealed segment sync failed: " + response.code() + " - keeping segment for retry");
+        } catch (Exception e) {
+            Log.e(TAG, "Sealed segment sync failed - keeping segment for retry", e);
+        }
+        return false;
+    }
+
+    private boolean sendJsonBatch(ApiService apiService, LocationColumns columns, boolean encrypted) {
+        if (encrypted) {
+            Log.d(TAG, ">>> Using ENCRYPTED endpoint: /api/secure/location");
+            return sendEncryptedLocations(apiService, columns);
+        }
+
+        String fixDeviceId = columns.getDeviceId();
+        List<LocationPayload> payloads = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            LocationPayload payload = new LocationPayload(columns.getLatitude(i), columns.getLongitude(i), fixDeviceId, columns.getTimestamp(i));
+            if (columns.isDwell(i)) {
+                payload.dwellCount = columns.getCount(i);
+                payload.dwellUntil = columns.getEndTimestamp(i);
+            }
+            payloads.add(payload);
+        }
+
+        Log.d(TAG, ">>> Using UNENCRYPTED endpoint: /api/location");
+        return sendUnencryptedLocations(apiService, payloads);
+    }
+
+    /**
+     * Sends the batch in the {@link LocationBatchCodec} binary format: as the raw body of
+     * api/location/batch, or encrypted inside the usual Base64 EncryptedPayload envelope
+     * when the server does not take sealed segments. Falls back to JSON if the server
+     * turns the format down.
+     */
+    private boolean sendBinaryBatch(ApiService apiService, LocationColumns columns, boolean encrypted) {
+        byte[] batch = LocationBatchCodec.encode(columns);
+        Log.d(TAG, "Sending binary batch: " + columns.size() + " locations in " + batch.length + " bytes" + (encrypted ? " (encrypted)" : ""));
+
+        try {
+            Call<ResponseBody> call;
+            if (encrypted) {
+                String encryptedData = AESEncryption.encrypt(batch);
+                if (encryptedData == null) {
+                    Log.e(TAG, "Encryption failed, falling back to JSON");
+                    return sendJsonBatch(apiService, columns, false);
+                }
+                EncryptedPayload encryptedPayload = new EncryptedPayload(encryptedData, deviceId);
+                encryptedPayload.setFormat(LocationBatchCodec.FORMAT);
+                call = apiService.sendEncryptedLocation(encryptedPayload);
+            } else {
+                call = apiService.sendBinaryLocationBatch(RequestBody.create(BINARY_BATCH, batch));
+            }
+
+            Response<ResponseBody> response = call.execute();
+            closeBody(response);
+            if (response.isSuccessful() && response.code() == 200) {
+                Log.d(TAG, "Binary sync successful (200): " + columns.size() + " locations sent");
+                return true;
+            }
+            if (response.code() == HTTP_NOT_FOUND || response.code() == HTTP_UNSUPPORTED_MEDIA_TYPE) {
+                Log.w(TAG, "Server rejected binary batches (" + response.code() + "), resending as JSON");
+                ApiClient.setBinaryBatchSupported(false);
+                return sendJsonBatch(apiService, columns, encrypted);
+            }
+            Log.e(TAG, "Binary sync failed: " + response.code() + " - keeping cache for retry");
+        } catch (Exception e) {
+            Log.e(TAG, "Binary sync failed - keeping cache for retry", e);
+        }
+        return false;
+    }
+
+    /**
+     * Streams the batch through JSON, optional gzip and AES-GCM straight into the
+     * request, so memory stays flat however large the backlog is.
+     */
+    private boolean sendEncryptedLocations(ApiService apiService, LocationColumns columns) {
+        // Compress before encrypting: ciphertext does not compress
+        boolean compress = ApiClient.isRequestGzipSupported();
+        RequestBody body = new EncryptedLocationsBody(columns, deviceId, compress);
+
+        Log.d(TAG, "Sending encrypted batch: " + columns.size() + " locations" + (compress ? " (gzip)" : ""));
+
+        try {
+            Response<ResponseBody> response = apiService.sendEncryptedLocation(body).execute();
+            closeBody(response);
+            if (response.isSuccessful() && response.code() == 200) {
+                Log.d(TAG, "Encrypted sync successful (200): " + columns.size() + " locations sent");
+                return true;
+            }
+            if (compress && response.code() == HTTP_UNSUPPORTED_MEDIA_TYPE) {
+                Log.w(TAG, "Server rejected gzip, resending uncompressed");
+                ApiClient.setRequestGzipSupported(false);
+                return sendEncryptedLocations(apiService, columns);
+            }
+            Log.e(TAG, "Encrypted sync failed: " + response.code() + " - keeping cache for retry");
+        } catch (Exception e) {
+            Log.e(TAG, "Encrypted sync failed - keeping cache for retry", e);
+        }
+        return false;
+    }
+
+    private boolean sendUnencryptedLocations(ApiService apiService, List<LocationPayload> payloads) {
+        boolean compress = ApiClient.isRequestGzipSupported();
+        Log.d(TAG, "Sending unencrypted batch: " + payloads.size() + " locations" + (compress ? " (gzip)" : ""));
+
+        try {
+            Call<ResponseBody> call;
+            if (compress) {
+                byte[] json = new Gson().toJson(payloads).getBytes(StandardCharsets.UTF_8);
+                RequestBody body = RequestBody.create(JSON, GzipCompression.compress(json));
+                call = apiService.sendLocationBatch(GzipCompression.ENCODING, body);
+            } else {
+                call = apiService.sendLocationBatch(payloads);
+            }
+
+            Response<ResponseBody> response = call.execute();
+            closeBody(response);
+            if (response.isSuccessful() && response.code() == 200) {
+                Log.d(TAG, "Batch sync successful (200): " + payloads.size() + " locations sent");
+                return true;
+            }
+            if (compress && response.code() == HTTP_UNSUPPORTED_MEDIA_TYPE) {
+                Log.w(TAG, "Server rejected gzip, resending uncompressed");
+                ApiClient.setRequestGzipSupported(false);
+                return sendUnencryptedLocations(apiService, payloads);
+            }
+            Log.e(TAG, "Batch sync failed: " + response.code() + " - keeping cache for retry");
+        } catch (Exception e) {
+            Log.e(TAG, "Batch sync failed - keeping cache for retry", e);
+        }
+        return false;
+    }
+
+    private static void closeBody(Response<ResponseBody> response) {
+        if (response.body() != null) {
+            response.body().close();
+        } else if (response.errorBody() != null) {
+            response.errorBody().close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.youssef.anti_thief.service;
+
+import java.util.Random;
+
+/**
+ * Decides when TrackingService syncs next, based on how the last attempt went
+ * and how much is waiting.
+ *
+ * - Failures back off exponentially from the base interval up to MAX_BACKOFF_MS,
+ *   with jitter so a fleet does not retry a recovering server in lockstep.
+ * - A full batch that went through is followed immediately by the next one.
+ * - An empty cache stretches the interval up to MAX_IDLE_MS.
+ * - A backlog over FLUSH_BACKLOG_COUNT fixes or older than FLUSH_BACKLOG_AGE_MS
+ *   asks for an immediate sync, unless the server is currently backing off.
+ *
+ * Every decision is counted and can be read back through {@link #getMetrics()}.
+ */
+public class SyncPolicy {
+
+    public enum Outcome {
+        SUCCESS,
+        EMPTY,
+        FAILURE,
+        OFFLINE
+    }
+
+    public static final long BASE_INTERVAL_MS = 60 * 1000L;
+    private static final long MAX_BACKOFF_MS = 30 * 60 * 1000L;
+    private static final long MAX_IDLE_MS = 15 * 60 * 1000L;
+    private static final int FLUSH_BACKLOG_COUNT = 100;
+    private static final long FLUSH_BACKLOG_AGE_MS = 10 * 60 * 1000L;
+    // Caps the shift so the doubling cannot overflow long
+    private static final int MAX_BACKOFF_EXPONENT = 16;
+
+    private final int batchSize;
+    private final Random random = new Random();
+
+    private int consecutiveFailures;
+    private int consecutiveEmpty;
+    private boolean flushRequested;
+
+    private long successes;
+    private long empties;
+    private long failures;
+    private long offlines;
+    private long flushes;
+    private long lastDelayMs = BASE_INTERVAL_MS;
+    private Outcome lastOutcome;
+
+    public SyncPolicy(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Records how a sync ended and returns the delay before the next one.
+     * sent is the number of fixes in the batch, remaining what is still pending after it.
+     */
+    public synchronized long onResult(Outcome outcome, int sent, long remaining) {
+        flushRequested = false;
+        lastOutcome = outcome;
+        long delay;
+        switch (outcome) {
+            case SUCCESS:
+                successes++;
+                consecutiveFailures = 0;
+                consecutiveEmpty = 0;
+                // A full batch means more is queued behind it: keep draining
+                delay = sent >= batchSize && remaining > 0 ? 0 : BASE_INTERVAL_MS;
+                break;
+            case EMPTY:
+                empties++;
+                consecutiveFailures = 0;
+                consecutiveEmpty++;
+                delay = Math.min(MAX_IDLE_MS, BASE_INTERVAL_MS * consecutiveEmpty);
+                break;
+            case OFFLINE:
+                offlines++;
+                consecutiveFailures++;
+                delay = backoff();
+                break;
+            case FAILURE:
+            default:
+                failures++;
+                consecutiveFailures++;
+                delay = backoff();
+                break;
+        }
+        lastDelayMs = delay;
+        return delay;
+    }
+
+    /**
+     * Called when a fix is cached. Returns true at most once per pending sync
+     * when the backlog is large or old enough to be worth sending right away.
+     */
+    public synchronized boolean shouldFlushNow(long backlogCount, long oldestTimestamp, long now) {
+        if (flushRequested || consecutiveFailures > 0 || backlogCount == 0) {
+            return false;
+        }
+        boolean large = backlogCount >= FLUSH_BACKLOG_COUNT;
+        boolean old = oldestTimestamp > 0 && now - oldestTimestamp >= FLUSH_BACKLOG_AGE_MS;
+        if (!large && !old) {
+            return false;
+        }
+        flushRequested = true;
+        flushes++;
+        return true;
+    }
+
+    public synchronized Metrics getMetrics() {
+        return new Metrics(successes, empties, failures, offlines, flushes,
+                consecutiveFailures, lastDelayMs, lastOutcome);
+    }
+
+    /**
+     * Equal jitter: half the exponential delay is fixed, the other half random.
+     */
+    private long backoff() {
+        int exponent = Math.min(consecutiveFailures - 1, MAX_BACKOFF_EXPONENT);
+        long ceiling = Math.min(MAX_BACKOFF_MS, BASE_INTERVAL_MS << exponent);
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * half);
+    }
+
+    /**
+     * Snapshot of the policy's counters and last decision.
+     */
+    public static class Metrics {
+        public final long successes;
+        public final long empties;
+        public final long failures;
+        public final long offlines;
+        public final long flushes;
+        public final int consecutiveFailures;
+        public final long lastDelayMs;
+        public final Outcome lastOutcome;
+
+        Metrics(long successes, long empties, long failures, long offlines, long flushes,
+                int consecutiveFailures, long lastDelayMs, Outcome lastOutcome) {
+            this.successes = successes;
+            this.empties = empties;
+            this.failures = failures;
+            this.offlines = offlines;
+            this.flushes = flushes;
+            this.consecutiveFailures = consecutiveFailures;
+            this.lastDelayMs = lastDelayMs;
+            this.lastOutcome = lastOutcome;
+        }
+
+        @Override
+        public String toString() {
+            return "last=" + lastOutcome + " next=" + lastDelayMs / 1000 + "s"
+                    + " ok=" + successes + " empty=" + empties + " failed=" + failures
+                    + " offline=" + offlines + " flushes=" + flushes
+                    + " failureStreak=" + consecutiveFailures;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.youssef.anti_thief.service;
 
 import android.Manifest;
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -16,9 +17,10 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
@@ -31,27 +33,17 @@ import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
-import com.google.gson.Gson;
-import com.youssef.anti_thief.DTO.EncryptedPayload;
-import com.youssef.anti_thief.DTO.LocationPayload;
 import com.youssef.anti_thief.MainActivity;
 import com.youssef.anti_thief.config.Config;
-import com.youssef.anti_thief.utils.AESEncryption;
+import com.youssef.anti_thief.receiver.SyncAlarmReceiver;
+import com.youssef.anti_thief.utils.DwellCompactor;
 import com.youssef.anti_thief.utils.HiddenCameraActivity;
 import com.youssef.anti_thief.utils.LocationCache;
+import com.youssef.anti_thief.utils.SealedSegmentStore;
+import com.youssef.anti_thief.utils.WakeLockManager;
 
-import java.util.ArrayList;
 import java.util.List;
 
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.ResponseBody;
-import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
-import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
-
 public class TrackingService extends Service {
 
     private static final String TAG = "TrackingService";
@@ -59,16 +51,40 @@ public class TrackingService extends Service {
     private static final String CAMERA_CHANNEL_ID = "camera_channel";
     private static final int NOTIFICATION_ID = 1;
     private static final int CAMERA_NOTIFICATION_ID = 2;
-    private static final long LOCATION_INTERVAL = 60000;
-    private static final long SYNC_INTERVAL = 60000;
+    private static final long SYNC_INTERVAL = SyncPolicy.BASE_INTERVAL_MS;
+    private static final String ACTION_SYNC = "com.youssef.anti_thief.action.SYNC";
+    private static final int SYNC_ALARM_REQUEST_CODE = 2;
+    // Backlogs are uploaded in pages of this many fixes, a few at a time
+    private static final int SYNC_PAGE_SIZE = 500;
+    private static final int SYNC_PAGES_IN_FLIGHT = 2;
+    private static final int SYNC_MAX_PAGES = 20;
+    // Worst case on power loss: the last 10 fixes or 10 minutes of cache changes
+    private static final int COMMIT_MAX_FIXES = 10;
+    private static final long COMMIT_MAX_DELAY_MS = 10 * 60 * 1000L;
+    // Upper bounds on how long each piece of work may keep the CPU awake
+    private static final long LOCATION_WAKE_TIMEOUT_MS = 10 * 1000L;
+    private static final long SYNC_WAKE_TIMEOUT_MS = 3 * 60 * 1000L;
 
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
-    private ApiService apiService;
     private LocationCache locationCache;
+    private DwellCompactor dwellCompactor;
+    private final LocationPolicy locationPolicy = new LocationPolicy();
+    private final SyncPolicy syncPolicy = new SyncPolicy(SYNC_PAGE_SIZE * SYNC_MAX_PAGES);
+    private SealedSegmentStore segmentStore;
+    private BacklogUploader backlogUploader;
+    private HandlerThread syncThread;
+    private HandlerThread locationThread;
     private Handler syncHandler;
-    private Runnable syncRunnable;
-    private PowerManager.WakeLock wakeLock;
+    private AlarmManager alarmManager;
+    private PendingIntent syncAlarmIntent;
+    private final Object syncScheduleLock = new Object();
+    // Elapsed realtime the pending sync is due at; Long.MAX_VALUE while none is pending
+    private long nextSyncAt = Long.MAX_VALUE;
+    // True while a sync is queued on the sync thread but has not started yet
+    private boolean syncQueued;
+    // SYNC lease SyncAlarmReceiver took, waiting for onStartCommand to pick it up
+    private static WakeLockManager.Lease alarmLease;
 
     private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
         @Override
@@ -87,12 +103,16 @@ public class TrackingService extends Service {
 
         Config.init(this);
 
-        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "antithief:tracking");
-        wakeLock.acquire();
+        // No lock for the life of the service: the CPU may sleep between fixes
+        // and is only held awake around a fix, a sync, a capture or an email
+        WakeLockManager.init(this);
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
         locationCache = new LocationCache(this);
+        locationCache.setCommitPolicy(COMMIT_MAX_FIXES, COMMIT_MAX_DELAY_MS);
+        dwellCompactor = new DwellCompactor(locationCache);
+        segmentStore = new SealedSegmentStore(this);
+        backlogUploader = new BacklogUploader(locationCache, new LocationUploader(segmentStore, getUniqueDeviceId()), segmentStore, SYNC_PAGE_SIZE, SYNC_PAGES_IN_FLIGHT);
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(Intent.ACTION_SCREEN_ON);
@@ -103,8 +123,19 @@ public class TrackingService extends Service {
             registerReceiver(screenReceiver, filter);
         }
 
-        syncHandler = new Handler(Looper.getMainLooper());
-        syncRunnable = this::syncCachedLocations;
+        // Serialization, encryption and uploads run here, never on the main looper
+        syncThread = new HandlerThread("TrackingSync");
+        syncThread.start();
+        syncHandler = new Handler(syncThread.getLooper());
+
+        alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        // A broadcast: AlarmManager holds a wake lock while onReceive runs, but none for a service start
+        Intent syncIntent = new Intent(this, SyncAlarmReceiver.class);
+        syncAlarmIntent = PendingIntent.getBroadcast(this, SYNC_ALARM_REQUEST_CODE, syncIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        locationThread = new HandlerThread("TrackingLocation");
+        locationThread.start();
     }
 
     @Override
@@ -118,33 +149,16 @@ public class TrackingService extends Service {
         Log.d(TAG, "Using server URL: " + serverUrl);
         Log.d(TAG, "API Key configured: " + (apiKey != null && !apiKey.isEmpty() ? "YES" : "NO"));
 
-        OkHttpClient.Builder httpClientBuilder = new OkHttpClient.Builder();
-
-        if (apiKey != null && !apiKey.isEmpty()) {
-            httpClientBuilder.addInterceptor(chain -> {
-                Request original = chain.request();
-                Request.Builder requestBuilder = original.newBuilder()
-                        .header("X-API-Key", apiKey)
-                        .header("Content-Type", "application/json");
-                return chain.proceed(requestBuilder.build());
-            });
-            Log.d(TAG, "API key interceptor added to HTTP client");
-        }
-
-        OkHttpClient httpClient = httpClientBuilder.build();
-
-        Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(serverUrl)
-                .client(httpClient)
-                .addConverterFactory(GsonConverterFactory.create())
-                .build();
-        apiService = retrofit.create(ApiService.class);
-
         createNotificationChannels();
         startForeground(NOTIFICATION_ID, createNotification());
         startLocationUpdates();
 
-        syncHandler.postDelayed(syncRunnable, SYNC_INTERVAL);
+        if (intent != null && ACTION_SYNC.equals(intent.getAction())) {
+            WakeLockManager.Lease lease = takeAlarmLease();
+            startSync(lease != null ? lease : WakeLockManager.acquire(WakeLockManager.SYNC, SYNC_WAKE_TIMEOUT_MS));
+        } else {
+            scheduleSync(SYNC_INTERVAL);
+        }
 
         return START_STICKY;
     }
@@ -191,143 +205,230 @@ public class TrackingService extends Service {
     }
 
     private void startLocationUpdates() {
+        if (locationCallback != null) {
+            // Already registered by an earlier onStartCommand
+            return;
+        }
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             Log.e(TAG, "Location permission not granted");
             return;
         }
 
-        LocationRequest locationRequest = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, LOCATION_INTERVAL)
-                .setMinUpdateIntervalMillis(LOCATION_INTERVAL / 2)
-                .setWaitForAccurateLocation(false)
-                .build();
-
         locationCallback = new LocationCallback() {
             @Override
             public void onLocationResult(LocationResult locationResult) {
                 if (locationResult == null) return;
-                for (Location location : locationResult.getLocations()) {
-                    handleNewLocation(location);
+                // Covers the fixes only: a flush takes its own SYNC lease before it is posted
+                try (WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.LOCATION, LOCATION_WAKE_TIMEOUT_MS)) {
+                    handleLocationResult(locationResult.getLocations());
                 }
             }
         };
 
-        fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+        requestLocationUpdates(locationPolicy.getMode());
         Log.d(TAG, "Location updates started");
     }
 
-    private void handleNewLocation(Location location) {
-        double lat = location.getLatitude();
-        double lng = location.getLongitude();
-        String deviceId = getUniqueDeviceId();
-
-        boolean added = locationCache.addLocation(lat, lng, deviceId);
-        if (added) {
-            Log.d(TAG, "New location cached: " + lat + ", " + lng);
-        } else {
-            Log.d(TAG, "Location skipped (too soon): " + lat + ", " + lng);
+    /**
+     * Registers, or re-registers, the callback with a request for the given mode.
+     * Requesting again with the same callback replaces its previous request.
+     */
+    private void requestLocationUpdates(LocationPolicy.Mode mode) {
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Location permission not granted");
+            return;
         }
+
+        int priority = mode.highAccuracy ? Priority.PRIORITY_HIGH_ACCURACY : Priority.PRIORITY_BALANCED_POWER_ACCURACY;
+        LocationRequest locationRequest = new LocationRequest.Builder(priority, mode.intervalMs)
+                .setMinUpdateIntervalMillis(mode.intervalMs / 2)
+                .setMaxUpdateDelayMillis(mode.maxUpdateDelayMs)
+                .setWaitForAccurateLocation(false)
+                .build();
+
+        locationCache.setMinIntervalMs(mode.intervalMs / 2);
+        fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, locationThread.getLooper());
+        Log.d(TAG, "Location request: " + mode + " every " + mode.intervalMs / 1000 + "s, batched up to "
+                + mode.maxUpdateDelayMs / 1000 + "s");
     }
 
-    private void syncCachedLocations() {
-        if (!isNetworkAvailable()) {
-            Log.d(TAG, "No network, skipping sync");
-            syncHandler.postDelayed(syncRunnable, SYNC_INTERVAL);
-            return;
+    /**
+     * Handles one LocationResult, which with batched delivery holds every fix
+     * taken since the last one. Each fix keeps its own time, and the whole
+     * result is written to the cache as a single commit.
+     */
+    private void handleLocationResult(List<Location> locations) {
+        String deviceId = getUniqueDeviceId();
+        boolean modeChanged = false;
+        int added = 0;
+
+        locationCache.beginBatch();
+        try {
+            for (Location location : locations) {
+                double lat = location.getLatitude();
+                double lng = location.getLongitude();
+                long time = location.getTime();
+
+                modeChanged |= locationPolicy.onFix(time, lat, lng, location.getAccuracy(),
+                        location.hasSpeed() ? location.getSpeed() : -1);
+                if (dwellCompactor.offer(time, lat, lng, location.getAccuracy(), deviceId)) {
+                    added++;
+                }
+            }
+        } finally {
+            locationCache.endBatch();
         }
+        Log.d(TAG, "Location result: " + locations.size() + " fixes, " + added + " cached, "
+                + (locations.size() - added) + " absorbed (stationary or too soon)");
 
-        List<LocationCache.CachedLocation> cachedLocations = locationCache.getUnsyncedLocations();
+        if (modeChanged) {
+            requestLocationUpdates(locationPolicy.getMode());
+        }
+        if (added > 0 && syncPolicy.shouldFlushNow(locationCache.getUnsyncedCount(),
+                locationCache.getOldestUnsyncedTimestamp(), System.currentTimeMillis())) {
+            Log.d(TAG, "Backlog over threshold, syncing now");
+            scheduleSync(0);
+        }
+    }
 
-        if (cachedLocations.isEmpty()) {
-            Log.d(TAG, "No locations to sync");
-            syncHandler.postDelayed(syncRunnable, SYNC_INTERVAL);
+    /**
+     * Arms the sync alarm for delayMs from now, unless a sync is already due
+     * sooner: a flush requested while a sync runs must survive the delay that
+     * sync schedules when it ends. There is only ever one pending alarm, so
+     * repeated onStartCommand calls never stack up parallel sync loops.
+     * A Handler delay counts uptime, which stops while the device is in deep
+     * sleep, so the wait uses a wakeup alarm on the elapsed realtime clock.
+     * A delay of 0 starts the sync right away.
+     */
+    private void scheduleSync(long delayMs) {
+        if (delayMs <= 0) {
+            startSync(WakeLockManager.acquire(WakeLockManager.SYNC, SYNC_WAKE_TIMEOUT_MS));
             return;
         }
-
-        List<LocationPayload> payloads = new ArrayList<>();
-        for (LocationCache.CachedLocation cached : cachedLocations) {
-            payloads.add(new LocationPayload(cached.latitude, cached.longitude, cached.deviceId, cached.timestamp));
+        synchronized (syncScheduleLock) {
+            long at = SystemClock.elapsedRealtime() + delayMs;
+            if (at >= nextSyncAt) {
+                return;
+            }
+            nextSyncAt = at;
+            setSyncAlarm(at);
         }
+    }
 
-        Log.d(TAG, "Syncing " + payloads.size() + " locations");
+    private void setSyncAlarm(long at) {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !alarmManager.canScheduleExactAlarms()) {
+                // Without the exact alarm grant Doze may hold this until its next maintenance window
+                alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, at, syncAlarmIntent);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, at, syncAlarmIntent);
+            } else {
+                alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, at, syncAlarmIntent);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error setting sync alarm", e);
+        }
+    }
 
-        String aesKey = Config.getAesKey();
-        Log.d(TAG, "AES Key configured: " + (aesKey != null && !aesKey.isEmpty() ? "YES (length=" + aesKey.length() + ")" : "NO"));
+    /**
+     * Called from SyncAlarmReceiver.onReceive, while AlarmManager still holds
+     * its wake lock. Takes the SYNC lease there and parks it for the
+     * onStartCommand the ACTION_SYNC start leads to, so the CPU stays awake
+     * from the alarm until the sync itself has finished.
+     */
+    public static void startSyncFromAlarm(Context context) {
+        WakeLockManager.init(context);
+        WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.SYNC, SYNC_WAKE_TIMEOUT_MS);
+        synchronized (TrackingService.class) {
+            if (alarmLease != null) {
+                alarmLease.close();
+            }
+            alarmLease = lease;
+        }
 
-        if (aesKey != null && !aesKey.isEmpty()) {
-            Log.d(TAG, ">>> Using ENCRYPTED endpoint: /api/secure/location");
-            sendEncryptedLocations(payloads);
-        } else {
-            Log.d(TAG, ">>> Using UNENCRYPTED endpoint: /api/location");
-            sendUnencryptedLocations(payloads);
+        Intent intent = new Intent(context, TrackingService.class).setAction(ACTION_SYNC);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(intent);
+            } else {
+                context.startService(intent);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to start service for sync alarm", e);
+            WakeLockManager.Lease parked = takeAlarmLease();
+            if (parked != null) {
+                parked.close();
+            }
         }
     }
 
-    private void sendEncryptedLocations(List<LocationPayload> payloads) {
-        try {
-            Gson gson = new Gson();
-            String jsonPayload = gson.toJson(payloads);
+    private static synchronized WakeLockManager.Lease takeAlarmLease() {
+        WakeLockManager.Lease lease = alarmLease;
+        alarmLease = null;
+        return lease;
+    }
 
-            String encryptedData = AESEncryption.encrypt(jsonPayload);
-            if (encryptedData == null) {
-                Log.e(TAG, "Encryption failed, falling back to unencrypted");
-                sendUnencryptedLocations(payloads);
+    /**
+     * Queues a sync on the sync thread now, holding the given SYNC lease. The
+     * caller takes it before handing over (inside its LOCATION lease, or in
+     * the alarm receiver), so the CPU cannot sleep between the caller's work
+     * ending and the sync thread picking the sync up.
+     */
+    private void startSync(WakeLockManager.Lease lease) {
+        synchronized (syncScheduleLock) {
+            if (syncQueued) {
+                // The queued sync has not started yet and will cover this request
+                lease.close();
                 return;
             }
-
-            EncryptedPayload encryptedPayload = new EncryptedPayload(encryptedData, getUniqueDeviceId());
-
-            Log.d(TAG, "Sending encrypted batch: " + payloads.size() + " locations");
-
-            apiService.sendEncryptedLocation(encryptedPayload).enqueue(new Callback<ResponseBody>() {
-                @Override
-                public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
-                    if (response.isSuccessful() && response.code() == 200) {
-                        Log.d(TAG, "Encrypted sync successful (200): " + payloads.size() + " locations sent");
-                        locationCache.clearSyncedLocations();
-                    } else {
-                        Log.e(TAG, "Encrypted sync failed: " + response.code() + " - keeping cache for retry");
-                    }
-                    locationCache.clearOldLocations(72);
-                    syncHandler.postDelayed(syncRunnable, SYNC_INTERVAL);
-                }
-
-                @Override
-                public void onFailure(Call<ResponseBody> call, Throwable t) {
-                    Log.e(TAG, "Encrypted sync failed - keeping cache for retry", t);
-                    locationCache.clearOldLocations(72);
-                    syncHandler.postDelayed(syncRunnable, SYNC_INTERVAL);
-                }
-            });
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error encrypting locations", e);
-            sendUnencryptedLocations(payloads);
+            syncQueued = true;
+            nextSyncAt = SystemClock.elapsedRealtime();
+            alarmManager.cancel(syncAlarmIntent);
+        }
+        if (!syncHandler.post(() -> syncCachedLocations(lease))) {
+            Log.w(TAG, "Sync thread has quit, dropping sync");
+            lease.close();
         }
     }
 
-    private void sendUnencryptedLocations(List<LocationPayload> payloads) {
-        Log.d(TAG, "Sending unencrypted batch: " + payloads.size() + " locations");
-
-        apiService.sendLocationBatch(payloads).enqueue(new Callback<ResponseBody>() {
-            @Override
-            public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
-                if (response.isSuccessful() && response.code() == 200) {
-                    Log.d(TAG, "Batch sync successful (200): " + payloads.size() + " locations sent");
-                    locationCache.clearSyncedLocations();
+    /**
+     * Runs on the sync thread, holding the SYNC lease startSync handed over.
+     * Uploads are synchronous, so one sync finishes before the next is
+     * scheduled and two can never overlap. The delay until the next one comes
+     * from the sync policy.
+     */
+    private void syncCachedLocations(WakeLockManager.Lease lease) {
+        synchronized (syncScheduleLock) {
+            syncQueued = false;
+            nextSyncAt = Long.MAX_VALUE;
+        }
+        SyncPolicy.Outcome outcome = SyncPolicy.Outcome.FAILURE;
+        int sent = 0;
+        try {
+            if (!isNetworkAvailable()) {
+                Log.d(TAG, "No network, skipping sync");
+                outcome = SyncPolicy.Outcome.OFFLINE;
+            } else {
+                Log.d(TAG, "Syncing " + locationCache.getUnsyncedCount() + " pending locations from seq " + locationCache.getSyncCursor());
+                BacklogUploader.Result result = backlogUploader.drain(SYNC_MAX_PAGES);
+                sent = result.acknowledgedFixes;
+                if (result.pages == 0) {
+                    Log.d(TAG, "No locations to sync");
+                    outcome = SyncPolicy.Outcome.EMPTY;
                 } else {
-                    Log.e(TAG, "Batch sync failed: " + response.code() + " - keeping cache for retry");
+                    outcome = result.failed ? SyncPolicy.Outcome.FAILURE : SyncPolicy.Outcome.SUCCESS;
                 }
                 locationCache.clearOldLocations(72);
-                syncHandler.postDelayed(syncRunnable, SYNC_INTERVAL);
-            }
-
-            @Override
-            public void onFailure(Call<ResponseBody> call, Throwable t) {
-                Log.e(TAG, "Batch sync failed - keeping cache for retry", t);
-                locationCache.clearOldLocations(72);
-                syncHandler.postDelayed(syncRunnable, SYNC_INTERVAL);
             }
-        });
+        } catch (Exception e) {
+            Log.e(TAG, "Sync failed", e);
+        } finally {
+            long delay = syncPolicy.onResult(outcome, sent, locationCache.getUnsyncedCount());
+            Log.d(TAG, "Sync policy: " + syncPolicy.getMetrics());
+            Log.d(TAG, "Wake locks: " + WakeLockManager.getStats());
+            scheduleSync(delay);
+            lease.close();
+        }
     }
 
     private void launchHiddenCamera() {
@@ -382,10 +483,7 @@ public class TrackingService extends Service {
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "Service destroyed - scheduling restart");
-
-        if (wakeLock != null && wakeLock.isHeld()) {
-            wakeLock.release();
-        }
+        Log.d(TAG, "Wake locks: " + WakeLockManager.getStats());
 
         try {
             unregisterReceiver(screenReceiver);
@@ -397,8 +495,24 @@ public class TrackingService extends Service {
             fusedLocationClient.removeLocationUpdates(locationCallback);
         }
 
-        if (syncHandler != null) {
-            syncHandler.removeCallbacks(syncRunnable);
+        if (alarmManager != null && syncAlarmIntent != null) {
+            alarmManager.cancel(syncAlarmIntent);
+        }
+        if (syncThread != null) {
+            syncThread.quitSafely();
+        }
+        if (backlogUploader != null) {
+            backlogUploader.shutdown();
+        }
+        if (locationThread != null) {
+            locationThread.quitSafely();
+        }
+
+        if (dwellCompactor != null) {
+            dwellCompactor.flush();
+        }
+        if (locationCache != null) {
+            locationCache.flush();
         }
 
         scheduleServiceRestart();
@@ -441,6 +555,12 @@ public class TrackingService extends Service {
     @Override
     public void onTaskRemoved(Intent rootIntent) {
         Log.d(TAG, "Task removed - scheduling restart");
+        if (dwellCompactor != null) {
+            dwellCompactor.flush();
+        }
+        if (locationCache != null) {
+            locationCache.flush();
+        }
         scheduleServiceRestart();
         super.onTaskRemoved(rootIntent);
     }
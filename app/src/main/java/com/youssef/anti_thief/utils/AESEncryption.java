@@ -5,93 +5,256 @@ import android.util.Log;
 
 import com.youssef.anti_thief.config.Config;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * AES-256-GCM with the key derived from the configured key string by SHA-256.
+ *
+ * The crypto context is cached: the derived key is kept until the configured
+ * key string changes, each thread reuses its own Cipher (GCM is re-initialized
+ * with a fresh IV for every message), and IVs come from one shared
+ * SecureRandom. A small message then costs the AES work itself, not a provider
+ * lookup, a digest and a SecureRandom seeding.
+ */
 public class AESEncryption {
 
     private static final String TAG = "AESEncryption";
     private static final String ALGORITHM = "AES/GCM/NoPadding";
-    private static final int GCM_IV_LENGTH = 12;
+    public static final int GCM_IV_LENGTH = 12;
     private static final int GCM_TAG_LENGTH = 128;
 
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<>();
+    private static volatile DerivedKey cachedKey;
+
+    private static final class DerivedKey {
+        final String password;
+        final SecretKeySpec key;
+
+        DerivedKey(String password, SecretKeySpec key) {
+            this.password = password;
+            this.key = key;
+        }
+    }
+
     public static String encrypt(String plaintext) {
+        String key = Config.getAesKey();
+        if (key == null || key.isEmpty()) {
+            Log.e(TAG, "AES key not configured, returning plaintext");
+            return plaintext;
+        }
+        return encrypt(plaintext.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encrypts raw bytes, e.g. an already compressed body, to Base64(IV + ciphertext).
+     * Returns null if no key is configured or encryption fails.
+     */
+    public static String encrypt(byte[] plaintext) {
+        byte[] combined = encryptToBytes(plaintext);
+        if (combined == null) {
+            return null;
+        }
+        String result = Base64.encodeToString(combined, Base64.NO_WRAP);
+        Log.d(TAG, "Encrypted " + plaintext.length + " bytes -> " + result.length() + " chars");
+        return result;
+    }
+
+    /**
+     * Encrypts raw bytes to IV + ciphertext, without the Base64 step, for binary
+     * transports. Returns null if no key is configured or encryption fails.
+     */
+    public static byte[] encryptToBytes(byte[] plaintext) {
         try {
-            String key = Config.getAesKey();
-            if (key == null || key.isEmpty()) {
-                Log.e(TAG, "AES key not configured, returning plaintext");
-                return plaintext;
+            SecretKey key = getKey();
+            if (key == null) {
+                Log.e(TAG, "AES key not configured");
+                return null;
             }
+            byte[] combined = new byte[encryptedSize(plaintext.length)];
+            encrypt(key, ByteBuffer.wrap(plaintext), ByteBuffer.wrap(combined), null);
+            return combined;
+        } catch (Exception e) {
+            Log.e(TAG, "Encryption failed", e);
+            return null;
+        }
+    }
 
-            SecretKeySpec secretKey = deriveKey(key);
+    /**
+     * Size of IV + ciphertext + tag for plaintextLength bytes.
+     */
+    public static int encryptedSize(int plaintextLength) {
+        return GCM_IV_LENGTH + plaintextLength + GCM_TAG_LENGTH / 8;
+    }
 
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            new SecureRandom().nextBytes(iv);
+    /**
+     * Encrypts the remaining bytes of plaintext into out as IV + ciphertext, with
+     * the configured key; aad, if not null, is authenticated but not encrypted.
+     * Returns the number of bytes written, {@link #encryptedSize(int)}.
+     */
+    public static int encrypt(ByteBuffer plaintext, ByteBuffer out, ByteBuffer aad) throws GeneralSecurityException {
+        return encrypt(requireKey(), plaintext, out, aad);
+    }
 
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
+    public static int encrypt(SecretKey key, ByteBuffer plaintext, ByteBuffer out, ByteBuffer aad) throws GeneralSecurityException {
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        Cipher cipher = threadCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        if (aad != null) {
+            cipher.updateAAD(aad.duplicate());
+        }
+        if (out.remaining() < encryptedSize(plaintext.remaining())) {
+            throw new ShortBufferException("Need " + encryptedSize(plaintext.remaining()) + " bytes");
+        }
+        out.put(iv);
+        return GCM_IV_LENGTH + cipher.doFinal(plaintext, out);
+    }
 
-            byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Decrypts IV + ciphertext from in into out with the configured key; aad must
+     * match what was passed to encrypt. Returns the number of plaintext bytes.
+     * Throws AEADBadTagException if the data or aad was tampered with.
+     */
+    public static int decrypt(ByteBuffer in, ByteBuffer out, ByteBuffer aad) throws GeneralSecurityException {
+        return decrypt(requireKey(), in, out, aad);
+    }
 
-            byte[] combined = new byte[iv.length + ciphertext.length];
-            System.arraycopy(iv, 0, combined, 0, iv.length);
-            System.arraycopy(ciphertext, 0, combined, iv.length, ciphertext.length);
+    public static int decrypt(SecretKey key, ByteBuffer in, ByteBuffer out, ByteBuffer aad) throws GeneralSecurityException {
+        if (in.remaining() < GCM_IV_LENGTH + GCM_TAG_LENGTH / 8) {
+            throw new AEADBadTagException("Ciphertext too short");
+        }
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        in.get(iv);
+        Cipher cipher = threadCipher();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        if (aad != null) {
+            cipher.updateAAD(aad.duplicate());
+        }
+        return cipher.doFinal(in, out);
+    }
 
-            String result = Base64.encodeToString(combined, Base64.NO_WRAP);
-            Log.d(TAG, "Encrypted " + plaintext.length() + " chars -> " + result.length() + " chars");
-            return result;
+    /**
+     * Fills iv with a fresh random IV and returns a cipher ready to encrypt with it,
+     * for callers that stream through a CipherOutputStream. Returns null if no key is configured.
+     * The cipher is the caller's own, not the thread's cached one, as a stream can
+     * outlive other encrypt calls on the same thread.
+     */
+    public static Cipher newEncryptCipher(byte[] iv) throws GeneralSecurityException {
+        String key = Config.getAesKey();
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        RANDOM.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        cipher.init(Cipher.ENCRYPT_MODE, deriveKey(key), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        return cipher;
+    }
 
+    public static String decrypt(String encryptedBase64) {
+        byte[] combined;
+        try {
+            combined = Base64.decode(encryptedBase64, Base64.NO_WRAP);
         } catch (Exception e) {
-            Log.e(TAG, "Encryption failed", e);
+            Log.e(TAG, "Decryption failed: not valid Base64", e);
             return null;
         }
+        byte[] plaintext = decryptBytes(combined);
+        return plaintext == null ? null : new String(plaintext, StandardCharsets.UTF_8);
     }
 
-    public static String decrypt(String encryptedBase64) {
+    /**
+     * Decrypts IV + ciphertext as produced by {@link #encryptToBytes(byte[])}.
+     * Returns null if no key is configured or the data does not authenticate.
+     */
+    public static byte[] decryptBytes(byte[] combined) {
+        if (combined == null) {
+            return null;
+        }
         try {
-            String key = Config.getAesKey();
-            if (key == null || key.isEmpty()) {
+            SecretKey key = getKey();
+            if (key == null) {
                 Log.e(TAG, "AES key not configured");
                 return null;
             }
-
-            SecretKeySpec secretKey = deriveKey(key);
-
-            byte[] combined = Base64.decode(encryptedBase64, Base64.NO_WRAP);
-
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            byte[] ciphertext = new byte[combined.length - GCM_IV_LENGTH];
-            System.arraycopy(combined, 0, iv, 0, iv.length);
-            System.arraycopy(combined, iv.length, ciphertext, 0, ciphertext.length);
-
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
-
-            byte[] plaintext = cipher.doFinal(ciphertext);
-            return new String(plaintext, StandardCharsets.UTF_8);
-
+            ByteBuffer plaintext = ByteBuffer.allocate(Math.max(0, combined.length - encryptedSize(0)));
+            decrypt(key, ByteBuffer.wrap(combined), plaintext, null);
+            return plaintext.array();
         } catch (Exception e) {
             Log.e(TAG, "Decryption failed", e);
             return null;
         }
     }
 
-    private static SecretKeySpec deriveKey(String password) throws Exception {
+    /**
+     * The configured key, or null if no key is configured; shared with other
+     * AES-GCM users such as {@link SegmentedAesGcm}.
+     */
+    static SecretKey getKey() throws GeneralSecurityException {
+        String key = Config.getAesKey();
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        return deriveKey(key);
+    }
+
+    private static SecretKey requireKey() throws GeneralSecurityException {
+        SecretKey key = getKey();
+        if (key == null) {
+            throw new GeneralSecurityException("AES key not configured");
+        }
+        return key;
+    }
+
+    /**
+     * Returns the key for password, derived only when the configured key string changed.
+     */
+    private static SecretKeySpec deriveKey(String password) throws GeneralSecurityException {
+        DerivedKey cached = cachedKey;
+        if (cached != null && cached.password.equals(password)) {
+            return cached.key;
+        }
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
         byte[] keyBytes = digest.digest(password.getBytes(StandardCharsets.UTF_8));
-        return new SecretKeySpec(keyBytes, "AES");
+        SecretKeySpec key = new SecretKeySpec(keyBytes, "AES");
+        cachedKey = new DerivedKey(password, key);
+        return key;
+    }
+
+    /**
+     * This thread's Cipher; init() resets it completely, so it is safe to reuse
+     * for every message as long as it is never shared across threads.
+     */
+    private static Cipher threadCipher() throws GeneralSecurityException {
+        Cipher cipher = CIPHERS.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(ALGORITHM);
+            CIPHERS.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Fills bytes from the shared SecureRandom, e.g. for salts and nonce prefixes.
+     */
+    static void nextRandomBytes(byte[] bytes) {
+        RANDOM.nextBytes(bytes);
     }
 
     public static String generateKey() {
         byte[] key = new byte[32];
-        new SecureRandom().nextBytes(key);
+        RANDOM.nextBytes(key);
         StringBuilder sb = new StringBuilder();
         for (byte b : key) {
             sb.append(String.format("%02x", b));
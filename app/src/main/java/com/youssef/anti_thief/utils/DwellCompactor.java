@@ -0,0 +1,150 @@
+package com.youssef.anti_thief.utils;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ingestion stage that collapses stationary runs of fixes into dwell records.
+ * A fix within the stationary radius of the last stored point (widened to the
+ * fix's own accuracy) only updates an open dwell: its centroid, first/last
+ * timestamp and count. The dwell is written as a single record when the device
+ * moves away, and at least every HEARTBEAT_MS so a long stay stays visible.
+ * A phone left on a desk overnight then costs a handful of records instead of
+ * hundreds of near-identical fixes.
+ *
+ * The anchor and the open dwell are kept in the cache's side record, a mapped
+ * write per fix that is committed with the ring, so a process kill does not
+ * lose up to a heartbeat of history: the next instance picks the dwell up
+ * where the last one left off.
+ */
+public class DwellCompactor {
+
+    private static final String TAG = "DwellCompactor";
+    // byte version | double anchorLat | double anchorLng | int count |
+    // double latSum | double lngSum | long first | long last
+    private static final byte STATE_VERSION = 1;
+    private static final int STATE_SIZE = 1 + 8 + 8 + 4 + 8 + 8 + 8 + 8;
+    private static final double STATIONARY_RADIUS_M = 25;
+    private static final double MAX_RADIUS_M = 100;
+    private static final long HEARTBEAT_MS = 30 * 60 * 1000;
+    private static final double EARTH_RADIUS_M = 6371000;
+
+    private final LocationCache cache;
+    private final byte[] state = new byte[STATE_SIZE];
+
+    private boolean anchored;
+    private double anchorLat;
+    private double anchorLng;
+
+    private int dwellCount;
+    private double dwellLatSum;
+    private double dwellLngSum;
+    private long dwellFirst;
+    private long dwellLast;
+    private String dwellDeviceId;
+
+    public DwellCompactor(LocationCache cache) {
+        this.cache = cache;
+        restore();
+    }
+
+    /**
+     * Feeds one fix. Returns true if it started a new stored point, false if it
+     * was absorbed into a dwell or skipped by the cache rate limit.
+     */
+    public synchronized boolean offer(long timestamp, double latitude, double longitude,
+                                      float accuracy, String deviceId) {
+        double radius = Math.min(MAX_RADIUS_M, Math.max(STATIONARY_RADIUS_M, accuracy));
+        if (anchored && distanceMeters(anchorLat, anchorLng, latitude, longitude) <= radius) {
+            if (dwellCount == 0) {
+                dwellFirst = timestamp;
+            }
+            dwellCount++;
+            dwellLatSum += latitude;
+            dwellLngSum += longitude;
+            dwellLast = timestamp;
+            dwellDeviceId = deviceId;
+            if (dwellLast - dwellFirst >= HEARTBEAT_MS) {
+                flush();
+            } else {
+                save();
+            }
+            return false;
+        }
+
+        flush();
+        if (!cache.addLocation(timestamp, latitude, longitude, deviceId)) {
+            return false;
+        }
+        anchored = true;
+        anchorLat = latitude;
+        anchorLng = longitude;
+        save();
+        return true;
+    }
+
+    /**
+     * Writes the open dwell, if any. The anchor is kept, so later fixes at the
+     * same place keep being absorbed.
+     */
+    public synchronized void flush() {
+        if (dwellCount == 0) {
+            return;
+        }
+        double lat = dwellLatSum / dwellCount;
+        double lng = dwellLngSum / dwellCount;
+        cache.addDwell(dwellFirst, dwellLast, lat, lng, dwellCount, dwellDeviceId);
+        Log.d(TAG, "Dwell of " + dwellCount + " fixes over " + (dwellLast - dwellFirst) / 1000 + "s at " + lat + ", " + lng);
+
+        dwellCount = 0;
+        dwellLatSum = 0;
+        dwellLngSum = 0;
+        save();
+    }
+
+    /**
+     * Picks up the anchor and open dwell a previous instance left behind. The
+     * device id is not kept; the cache already stores it once for all fixes.
+     */
+    private void restore() {
+        byte[] saved = cache.readSideRecord();
+        if (saved == null || saved.length != STATE_SIZE || saved[0] != STATE_VERSION) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(saved, 1, STATE_SIZE - 1);
+        anchored = true;
+        anchorLat = buffer.getDouble();
+        anchorLng = buffer.getDouble();
+        dwellCount = buffer.getInt();
+        dwellLatSum = buffer.getDouble();
+        dwellLngSum = buffer.getDouble();
+        dwellFirst = buffer.getLong();
+        dwellLast = buffer.getLong();
+        if (dwellCount > 0) {
+            Log.d(TAG, "Restored open dwell of " + dwellCount + " fixes since " + dwellFirst);
+        }
+    }
+
+    private void save() {
+        ByteBuffer.wrap(state)
+                .put(STATE_VERSION)
+                .putDouble(anchorLat)
+                .putDouble(anchorLng)
+                .putInt(dwellCount)
+                .putDouble(dwellLatSum)
+                .putDouble(dwellLngSum)
+                .putLong(dwellFirst)
+                .putLong(dwellLast);
+        cache.writeSideRecord(state);
+    }
+
+    /**
+     * Equirectangular distance; plenty accurate at the tens of meters this works with.
+     */
+    public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double x = Math.toRadians(lng2 - lng1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_M;
+    }
+}
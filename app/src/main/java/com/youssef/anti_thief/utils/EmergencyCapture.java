@@ -32,7 +32,6 @@ import com.google.android.gms.tasks.CancellationTokenSource;
 import com.youssef.anti_thief.config.Config;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -53,6 +52,8 @@ public class EmergencyCapture {
     private static final String TAG = "EmergencyCapture";
     private static final int PHOTOS_PER_CAMERA = 4;
     private static final long PHOTO_INTERVAL_MS = 50;
+    private static final long CAPTURE_WAKE_TIMEOUT_MS = 30 * 1000L;
+    private static final long PACKAGING_WAKE_TIMEOUT_MS = 2 * 60 * 1000L;
 
     public static void capture(Context context, String alertType) {
         Log.d(TAG, "=== EMERGENCY CAPTURE STARTED: " + alertType + " ===");
@@ -61,21 +62,28 @@ public class EmergencyCapture {
             try {
                 // Initialize config
                 Config.init(context);
+                WakeLockManager.init(context);
 
-                // Capture photos
-                List<String> photoPaths = capturePhotos(context);
-                Log.d(TAG, "Captured " + photoPaths.size() + " photos");
+                // Capture photos and get current location
+                List<String> photoPaths;
+                Location currentLocation;
+                try (WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.CAPTURE, CAPTURE_WAKE_TIMEOUT_MS)) {
+                    photoPaths = capturePhotos(context);
+                    Log.d(TAG, "Captured " + photoPaths.size() + " photos");
 
-                // Get current location
-                Location currentLocation = getCurrentLocation(context);
+                    currentLocation = getCurrentLocation(context);
+                }
                 if (currentLocation != null) {
                     Log.d(TAG, "Current location: " + currentLocation.getLatitude() + ", " + currentLocation.getLongitude());
                 }
 
                 // Create ZIP and send email
                 if (!photoPaths.isEmpty()) {
-                    String zipPath = ZipCreatorEmergency.createEmergencyZip(context, photoPaths, alertType, currentLocation);
-                    
+                    String zipPath;
+                    try (WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.PACKAGING, PACKAGING_WAKE_TIMEOUT_MS)) {
+                        zipPath = ZipCreatorEmergency.createEmergencyZip(context, photoPaths, alertType, currentLocation);
+                    }
+
                     if (zipPath != null) {
                         String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date());
                         String subject = "[ALERT] " + alertType + " - " + timestamp;
@@ -270,15 +278,7 @@ public class EmergencyCapture {
     private static String saveImage(Context context, byte[] bytes, boolean isFront, int index) {
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
         String fileName = "emergency_" + (isFront ? "front_" : "back_") + timestamp + "_" + (index + 1) + ".jpg";
-        File photoFile = new File(context.getExternalFilesDir(null), fileName);
-
-        try (FileOutputStream fos = new FileOutputStream(photoFile)) {
-            fos.write(bytes);
-            return photoFile.getAbsolutePath();
-        } catch (Exception e) {
-            Log.e(TAG, "Error saving image", e);
-            return null;
-        }
+        return SealedPhotos.save(context.getExternalFilesDir(null), fileName, bytes);
     }
 
     private static Location getCurrentLocation(Context context) {
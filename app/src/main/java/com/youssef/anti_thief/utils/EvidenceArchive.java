@@ -0,0 +1,165 @@
+package com.youssef.anti_thief.utils;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonWriter;
+
+import net.lingala.zip4j.io.outputstream.ZipOutputStream;
+import net.lingala.zip4j.model.ZipParameters;
+import net.lingala.zip4j.model.enums.AesKeyStrength;
+import net.lingala.zip4j.model.enums.CompressionMethod;
+import net.lingala.zip4j.model.enums.EncryptionMethod;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AES-256 encrypted alert ZIP written front to back in a single pass.
+ *
+ * ZipFile.addFile reopens the archive and rewrites its central directory on
+ * every call, and text had to go through a temp file first. Here every entry
+ * is streamed straight into one ZipOutputStream: photos are copied in once,
+ * and the JSON manifest and HTML report are generated directly into their
+ * entries. JPEGs are stored, not deflated, as they do not compress any further.
+ * A photo sealed by {@link SealedPhotos} is mapped and decrypted one segment at
+ * a time into its entry, so its plaintext never touches the disk.
+ *
+ *   try (EvidenceArchive archive = new EvidenceArchive(zipFile, password)) {
+ *       archive.addPhoto(photoFile);
+ *       archive.addJson("data.json", json -> json.beginObject()...endObject());
+ *       archive.addText("map.html", html);
+ *   }
+ */
+public class EvidenceArchive implements Closeable {
+
+    private static final String TAG = "EvidenceArchive";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes one JSON document; the writer must not be closed.
+     */
+    public interface JsonContent {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    private final File file;
+    private final ZipOutputStream zip;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final List<String> entries = new ArrayList<>();
+
+    public EvidenceArchive(File file, String password) throws IOException {
+        this.file = file;
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            this.zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE), password.toCharArray());
+        } catch (IOException | RuntimeException e) {
+            // The archive never took ownership of the file stream
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies a photo file into the archive under its own name, without the
+     * sealed suffix if it has one.
+     */
+    public void addPhoto(File photo) throws IOException {
+        if (SealedPhotos.isSealed(photo)) {
+            addSealedPhoto(photo);
+            return;
+        }
+        try (InputStream in = new FileInputStream(photo)) {
+            zip.putNextEntry(parameters(photo.getName(), CompressionMethod.STORE, photo.length()));
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                zip.write(buffer, 0, read);
+            }
+            zip.closeEntry();
+        }
+        entries.add(photo.getName());
+    }
+
+    private void addSealedPhoto(File photo) throws IOException {
+        String name = SealedPhotos.plainName(photo);
+        try (FileChannel channel = new FileInputStream(photo).getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            SegmentedAesGcm.SegmentReader reader = new SegmentedAesGcm.SegmentReader(mapped);
+            ByteBuffer plaintext = ByteBuffer.wrap(reader.getSegmentSize() <= buffer.length
+                    ? buffer : new byte[reader.getSegmentSize()]);
+            zip.putNextEntry(parameters(name, CompressionMethod.STORE, reader.getPlaintextSize()));
+            for (int i = 0; i < reader.getSegmentCount(); i++) {
+                plaintext.clear();
+                int length = reader.decryptSegment(i, plaintext);
+                zip.write(plaintext.array(), 0, length);
+            }
+            zip.closeEntry();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot decrypt " + photo.getName(), e);
+        }
+        entries.add(name);
+    }
+
+    /**
+     * Streams a pretty-printed JSON document into a new entry.
+     */
+    public void addJson(String name, JsonContent content) throws IOException {
+        zip.putNextEntry(parameters(name, CompressionMethod.DEFLATE, -1));
+        // Not closed: that would close the whole archive
+        JsonWriter json = new JsonWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+        json.setIndent("  ");
+        json.setSerializeNulls(true);
+        content.write(json);
+        json.flush();
+        zip.closeEntry();
+        entries.add(name);
+    }
+
+    public void addText(String name, String text) throws IOException {
+        zip.putNextEntry(parameters(name, CompressionMethod.DEFLATE, -1));
+        zip.write(text.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+        entries.add(name);
+    }
+
+    /**
+     * Names of the entries written so far, in archive order.
+     */
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Writes the central directory and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        zip.close();
+        Log.d(TAG, "Wrote " + entries.size() + " entries, " + file.length() + " bytes: " + file.getName());
+    }
+
+    private static ZipParameters parameters(String name, CompressionMethod method, long size) {
+        ZipParameters parameters = new ZipParameters();
+        parameters.setFileNameInZip(name);
+        parameters.setCompressionMethod(method);
+        // Stored entries need their size up front when streaming
+        parameters.setEntrySize(size);
+        parameters.setLastModifiedFileTime(System.currentTimeMillis());
+        parameters.setEncryptFiles(true);
+        parameters.setEncryptionMethod(EncryptionMethod.AES);
+        parameters.setAesKeyStrength(AesKeyStrength.KEY_STRENGTH_256);
+        return parameters;
+    }
+}
@@ -5,6 +5,9 @@ import android.util.Log;
 import com.youssef.anti_thief.config.Config;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -26,6 +29,7 @@ import javax.mail.internet.MimeMultipart;
 public class GMailSender {
 
     private static final String TAG = "GMailSender";
+    private static final long EMAIL_WAKE_TIMEOUT_MS = 2 * 60 * 1000L;
 
     /**
      * V4: Send text-only email (no attachment)
@@ -35,7 +39,7 @@ public class GMailSender {
         Log.d(TAG, "Subject: " + subject);
 
         Thread emailThread = new Thread(() -> {
-            try {
+            try (WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.EMAIL, EMAIL_WAKE_TIMEOUT_MS)) {
                 String emailUser = Config.getEmailUser();
                 String emailPass = Config.getEmailPass();
                 String targetEmail = Config.getTargetEmail();
@@ -95,7 +99,7 @@ public class GMailSender {
         Log.d(TAG, "ZIP file exists, size: " + zipFile.length() + " bytes");
 
         Thread emailThread = new Thread(() -> {
-            try {
+            try (WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.EMAIL, EMAIL_WAKE_TIMEOUT_MS)) {
                 String emailUser = Config.getEmailUser();
                 String emailPass = Config.getEmailPass();
                 String targetEmail = Config.getTargetEmail();
@@ -185,7 +189,7 @@ public class GMailSender {
         Log.d(TAG, "File exists, size: " + checkFile.length() + " bytes");
 
         Thread emailThread = new Thread(() -> {
-            try {
+            try (WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.EMAIL, EMAIL_WAKE_TIMEOUT_MS)) {
                 String emailUser = Config.getEmailUser();
                 String emailPass = Config.getEmailPass();
                 String targetEmail = Config.getTargetEmail();
@@ -228,9 +232,9 @@ public class GMailSender {
                 if (file.exists()) {
                     Log.d(TAG, "Adding attachment: " + file.getName());
                     MimeBodyPart attachmentPart = new MimeBodyPart();
-                    DataSource source = new FileDataSource(file);
+                    DataSource source = SealedPhotos.isSealed(file) ? new SealedPhotoDataSource(file) : new FileDataSource(file);
                     attachmentPart.setDataHandler(new DataHandler(source));
-                    attachmentPart.setFileName(file.getName());
+                    attachmentPart.setFileName(SealedPhotos.plainName(file));
                     multipart.addBodyPart(attachmentPart);
                 } else {
                     Log.e(TAG, "File no longer exists when attaching!");
@@ -259,4 +263,35 @@ public class GMailSender {
         emailThread.start();
         Log.d(TAG, "Email thread started: " + emailThread.getName());
     }
+
+    /**
+     * A photo sealed by {@link SealedPhotos}, decrypted while the message is written.
+     */
+    private static class SealedPhotoDataSource implements DataSource {
+        private final File file;
+
+        SealedPhotoDataSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return SealedPhotos.open(file);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Read only");
+        }
+
+        @Override
+        public String getContentType() {
+            return "image/jpeg";
+        }
+
+        @Override
+        public String getName() {
+            return SealedPhotos.plainName(file);
+        }
+    }
 }
@@ -0,0 +1,22 @@
+package com.youssef.anti_thief.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip for request bodies. Location batches repeat the same field names and
+ * device id for every point, so a JSON backlog typically shrinks about eightfold.
+ */
+public class GzipCompression {
+
+    public static final String ENCODING = "gzip";
+
+    public static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 8));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
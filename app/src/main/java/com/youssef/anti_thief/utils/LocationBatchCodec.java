@@ -0,0 +1,110 @@
+package com.youssef.anti_thief.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Binary wire format for location batches, an alternative to a JSON array of
+ * LocationPayload. The device id is sent once in the header instead of once
+ * per point, and the points are {@link TrajectoryCodec} blocks: E7 fixed point
+ * coordinates, delta and varint encoded, with a CRC per block.
+ *
+ * Layout (version 1):
+ *   byte 'L' | byte 'B' | byte version | byte flags (0) |
+ *   varint deviceIdLength | deviceId (UTF-8) |
+ *   varint pointCount |
+ *   TrajectoryCodec blocks until the end of the body
+ *
+ * pointCount lets the server reject a batch without decoding the points;
+ * timestamps are only carried by the blocks, each of which starts from an
+ * absolute first timestamp.
+ */
+public final class LocationBatchCodec {
+
+    public static final String CONTENT_TYPE = "application/x-location-batch; v=1";
+    /** Value of EncryptedPayload.format when the encrypted data is a binary batch. */
+    public static final String FORMAT = "location-batch-v1";
+
+    private static final byte MAGIC_0 = 'L';
+    private static final byte MAGIC_1 = 'B';
+    private static final byte VERSION = 1;
+
+    private LocationBatchCodec() {
+    }
+
+    public static byte[] encode(LocationColumns points) {
+        String deviceId = points.getDeviceId() == null ? "" : points.getDeviceId();
+        byte[] id = deviceId.getBytes(StandardCharsets.UTF_8);
+        byte[] blocks = TrajectoryCodec.encode(points);
+
+        byte[] out = new byte[4 + 5 + id.length + 5 + blocks.length];
+        out[0] = MAGIC_0;
+        out[1] = MAGIC_1;
+        out[2] = VERSION;
+        out[3] = 0;
+        int position = 4;
+        position = writeVarint(out, position, id.length);
+        System.arraycopy(id, 0, out, position, id.length);
+        position += id.length;
+        position = writeVarint(out, position, points.size());
+        System.arraycopy(blocks, 0, out, position, blocks.length);
+        return Arrays.copyOf(out, position + blocks.length);
+    }
+
+    /**
+     * Decodes a batch; the returned points carry the device id.
+     */
+    public static LocationColumns decode(byte[] data) throws IOException {
+        if (data.length < 4 || data[0] != MAGIC_0 || data[1] != MAGIC_1) {
+            throw new IOException("Not a location batch");
+        }
+        if (data[2] != VERSION) {
+            throw new IOException("Unsupported location batch version " + data[2]);
+        }
+
+        int[] position = {4};
+        int idLength = (int) readVarint(data, position);
+        if (idLength < 0 || position[0] + idLength > data.length) {
+            throw new IOException("Truncated location batch header");
+        }
+        String deviceId = new String(data, position[0], idLength, StandardCharsets.UTF_8);
+        position[0] += idLength;
+        long count = readVarint(data, position);
+
+        LocationColumns points = new LocationColumns();
+        int offset = position[0];
+        while (offset < data.length) {
+            offset = TrajectoryCodec.decodeBlock(data, offset, points);
+        }
+        if (points.size() != count) {
+            throw new IOException("Location batch declares " + count + " points but holds " + points.size());
+        }
+        points.setDeviceId(deviceId.isEmpty() ? null : deviceId);
+        return points;
+    }
+
+    private static int writeVarint(byte[] out, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    private static long readVarint(byte[] data, int[] position) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IOException("Truncated location batch header");
+            }
+            int b = data[position[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint in location batch header");
+    }
+}
@@ -2,99 +2,274 @@ package com.youssef.anti_thief.utils;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
+/**
+ * Location history backed by a memory-mapped {@link LocationRingBuffer}.
+ * The device id is identical for every fix, so it is kept once in
+ * SharedPreferences instead of being repeated in each record.
+ */
 public class LocationCache {
 
+    private static final String TAG = "LocationCache";
     private static final String PREFS_NAME = "location_cache";
     private static final String KEY_LOCATIONS = "cached_locations";
     private static final String KEY_LAST_LOCATION_TIME = "last_location_time";
-    private static final long MIN_INTERVAL_MS = 60000;
+    private static final String KEY_DEVICE_ID = "device_id";
+    private static final long DEFAULT_MIN_INTERVAL_MS = 60000;
 
     private final SharedPreferences prefs;
-    private final Gson gson;
+    private LocationRingBuffer ring;
+    private volatile long minIntervalMs = DEFAULT_MIN_INTERVAL_MS;
 
     public LocationCache(Context context) {
         prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        gson = new Gson();
+        try {
+            ring = LocationRingBuffer.getInstance(context);
+            migrateLegacyCache();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open location ring buffer", e);
+        }
     }
 
     public boolean addLocation(double latitude, double longitude, String deviceId) {
-        long now = System.currentTimeMillis();
-        long lastTime = prefs.getLong(KEY_LAST_LOCATION_TIME, 0);
+        return addLocation(System.currentTimeMillis(), latitude, longitude, deviceId);
+    }
+
+    /**
+     * Stores a fix taken at timestamp, which for batched delivery can be minutes
+     * before it reaches the app. Fixes closer than the minimum interval to the
+     * last stored one, or older than it, are skipped.
+     */
+    public boolean addLocation(long timestamp, double latitude, double longitude, String deviceId) {
+        if (ring == null) {
+            return false;
+        }
 
-        if (now - lastTime < MIN_INTERVAL_MS) {
+        if (timestamp - ring.getLastTimestamp() < minIntervalMs) {
             return false;
         }
 
-        List<CachedLocation> locations = getAllLocations();
-        locations.add(new CachedLocation(latitude, longitude, deviceId, now));
-        saveLocations(locations);
+        if (deviceId != null && !deviceId.equals(prefs.getString(KEY_DEVICE_ID, null))) {
+            prefs.edit().putString(KEY_DEVICE_ID, deviceId).apply();
+        }
 
-        prefs.edit().putLong(KEY_LAST_LOCATION_TIME, now).apply();
-        return true;
+        return ring.append(timestamp, latitude, longitude);
     }
 
-    public List<CachedLocation> getAllLocations() {
-        String json = prefs.getString(KEY_LOCATIONS, null);
-        if (json == null) {
-            return new ArrayList<>();
+    /**
+     * Starts writing a batch of fixes that is committed as one change by
+     * {@link #endBatch()}, e.g. one LocationResult.
+     */
+    public void beginBatch() {
+        if (ring != null) {
+            ring.beginBatch();
         }
+    }
 
-        Type type = new TypeToken<List<CachedLocation>>(){}.getType();
-        List<CachedLocation> locations = gson.fromJson(json, type);
-        return locations != null ? locations : new ArrayList<>();
+    public void endBatch() {
+        if (ring != null) {
+            ring.endBatch();
+        }
+    }
+
+    /**
+     * Sets the minimum spacing of fixes stored by {@link #addLocation}, e.g. to follow
+     * the rate the location request currently delivers at.
+     */
+    public void setMinIntervalMs(long minIntervalMs) {
+        this.minIntervalMs = minIntervalMs;
+    }
+
+    /**
+     * Stores a dwell: count stationary fixes from firstTimestamp to lastTimestamp
+     * collapsed into one record at their centroid. Not rate limited, the fixes
+     * it stands for already were.
+     */
+    public boolean addDwell(long firstTimestamp, long lastTimestamp, double latitude, double longitude,
+                            int count, String deviceId) {
+        if (ring == null || firstTimestamp <= ring.getLastTimestamp()) {
+            return false;
+        }
+
+        if (deviceId != null && !deviceId.equals(prefs.getString(KEY_DEVICE_ID, null))) {
+            prefs.edit().putString(KEY_DEVICE_ID, deviceId).apply();
+        }
+
+        int spanSeconds = (int) ((lastTimestamp - firstTimestamp) / 1000);
+        return ring.append(firstTimestamp, latitude, longitude, count, spanSeconds);
     }
 
-    public List<CachedLocation> getUnsyncedLocations() {
-        return getAllLocations();
+    /**
+     * Fills the given columns with the whole retained history, oldest first.
+     */
+    public void readAll(LocationColumns into) {
+        into.clear();
+        if (ring == null) {
+            return;
+        }
+        into.setDeviceId(prefs.getString(KEY_DEVICE_ID, null));
+        ring.forEach(into::add);
     }
 
-    public void clearSyncedLocations() {
-        prefs.edit().remove(KEY_LOCATIONS).apply();
+    /**
+     * Fills the given columns with at most maxCount locations starting at the sync cursor.
+     * Once the server accepts them, pass {@link LocationColumns#getLastSeq()} to
+     * {@link #acknowledgeThrough(long)}.
+     */
+    public void readUnsynced(int maxCount, LocationColumns into) {
+        readFrom(getSyncCursor(), maxCount, into);
     }
 
-    public void clearOldLocations(int hoursToKeep) {
-        List<CachedLocation> locations = getAllLocations();
-        long cutoffTime = System.currentTimeMillis() - (hoursToKeep * 60 * 60 * 1000L);
+    /**
+     * Fills the given columns with at most maxCount locations starting at fromSeq,
+     * e.g. the page after one that is still being uploaded.
+     */
+    public void readFrom(long fromSeq, int maxCount, LocationColumns into) {
+        into.clear();
+        if (ring == null) {
+            return;
+        }
+        into.setDeviceId(prefs.getString(KEY_DEVICE_ID, null));
+        ring.forEach(fromSeq, fromSeq + maxCount, into::add);
+    }
 
-        Iterator<CachedLocation> iterator = locations.iterator();
-        while (iterator.hasNext()) {
-            if (iterator.next().timestamp < cutoffTime) {
-                iterator.remove();
-            }
+    /**
+     * Seq of the first location not yet acknowledged by the server.
+     */
+    public long getSyncCursor() {
+        return ring == null ? 0 : ring.getSyncCursor();
+    }
+
+    /**
+     * Fills the given columns with the locations recorded in [fromTime, toTime).
+     */
+    public void readBetween(long fromTime, long toTime, LocationColumns into) {
+        into.clear();
+        if (ring == null) {
+            return;
+        }
+        into.setDeviceId(prefs.getString(KEY_DEVICE_ID, null));
+        ring.forEachBetween(fromTime, toTime, into::add);
+    }
+
+    /**
+     * Configures group commit of cached locations: at most maxUncommittedFixes fixes,
+     * or maxCommitDelayMs worth of changes, can be lost on a power failure.
+     */
+    public void setCommitPolicy(int maxUncommittedFixes, long maxCommitDelayMs) {
+        if (ring != null) {
+            ring.setCommitPolicy(maxUncommittedFixes, maxCommitDelayMs);
+        }
+    }
+
+    /**
+     * Stores a small record of ingestion state, e.g. an open dwell, that is
+     * committed together with the cached locations. Null removes it.
+     */
+    public void writeSideRecord(byte[] record) {
+        if (ring != null) {
+            ring.writeSideRecord(record);
+        }
+    }
+
+    /**
+     * The record last passed to {@link #writeSideRecord}, or null.
+     */
+    public byte[] readSideRecord() {
+        return ring == null ? null : ring.readSideRecord();
+    }
+
+    /**
+     * Makes every cached location and sync watermark durable now.
+     */
+    public void flush() {
+        if (ring != null) {
+            ring.commit();
+        }
+    }
+
+    public long getUnsyncedCount() {
+        return ring == null ? 0 : ring.unsyncedCount();
+    }
+
+    /**
+     * Timestamp of the oldest location still waiting for upload, or 0 if there is none.
+     */
+    public long getOldestUnsyncedTimestamp() {
+        return ring == null ? 0 : ring.getOldestUnsyncedTimestamp();
+    }
+
+    /**
+     * Commits the sync watermark: every location with seq <= lastSeq has been delivered.
+     * Locations cached while the upload was in flight stay pending.
+     */
+    public void acknowledgeThrough(long lastSeq) {
+        if (ring == null) {
+            return;
         }
+        ring.acknowledgeThrough(lastSeq);
+    }
 
-        saveLocations(locations);
+    public void clearOldLocations(int hoursToKeep) {
+        if (ring == null) {
+            return;
+        }
+        long cutoffTime = System.currentTimeMillis() - (hoursToKeep * 60 * 60 * 1000L);
+        int expired = ring.expireBefore(cutoffTime);
+        if (expired > 0) {
+            Log.d(TAG, "Expired " + expired + " locations older than " + hoursToKeep + "h");
+        }
     }
 
     public void clearAll() {
+        if (ring != null) {
+            ring.clear();
+        }
         prefs.edit().remove(KEY_LOCATIONS).remove(KEY_LAST_LOCATION_TIME).apply();
     }
 
-    private void saveLocations(List<CachedLocation> locations) {
-        String json = gson.toJson(locations);
-        prefs.edit().putString(KEY_LOCATIONS, json).apply();
-    }
+    /**
+     * Moves locations cached by the old JSON-in-SharedPreferences format into the ring.
+     */
+    private void migrateLegacyCache() {
+        String json = prefs.getString(KEY_LOCATIONS, null);
+        if (json == null) {
+            return;
+        }
 
-    public static class CachedLocation {
-        public double latitude;
-        public double longitude;
-        public String deviceId;
-        public long timestamp;
+        Type type = new TypeToken<List<CachedLocation>>(){}.getType();
+        List<CachedLocation> legacy = new Gson().fromJson(json, type);
+        SharedPreferences.Editor editor = prefs.edit().remove(KEY_LOCATIONS).remove(KEY_LAST_LOCATION_TIME);
 
-        public CachedLocation(double latitude, double longitude, String deviceId, long timestamp) {
-            this.latitude = latitude;
-            this.longitude = longitude;
-            this.deviceId = deviceId;
-            this.timestamp = timestamp;
+        if (legacy != null) {
+            for (CachedLocation location : legacy) {
+                if (location.timestamp > ring.getLastTimestamp()) {
+                    ring.append(location.timestamp, location.latitude, location.longitude);
+                }
+                if (location.deviceId != null) {
+                    editor.putString(KEY_DEVICE_ID, location.deviceId);
+                }
+            }
+            Log.d(TAG, "Migrated " + legacy.size() + " legacy cached locations");
         }
+        editor.apply();
+    }
+
+    /**
+     * Element of the legacy JSON cache, only kept to read it during migration.
+     */
+    private static class CachedLocation {
+        double latitude;
+        double longitude;
+        String deviceId;
+        long timestamp;
     }
 }
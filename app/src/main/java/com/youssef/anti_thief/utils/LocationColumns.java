@@ -0,0 +1,151 @@
+package com.youssef.anti_thief.utils;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays view of cached location history.
+ * Coordinates are quantized to 1e-7 degrees (about 1 cm) and stored in int
+ * columns next to a long timestamp column; the device id is held once for the
+ * whole set. Dwell records (several stationary fixes collapsed into one)
+ * carry their fix count and time span in two more int columns.
+ * Instances are meant to be reused: {@link #clear()} keeps the
+ * arrays, so refilling for every sync does not allocate per point.
+ */
+public class LocationColumns {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final double E7 = 1e7;
+
+    public interface PointVisitor {
+        void visit(long seq, long timestamp, int latE7, int lngE7);
+    }
+
+    private long[] seqs = new long[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] latitudesE7 = new int[INITIAL_CAPACITY];
+    private int[] longitudesE7 = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int[] spansSeconds = new int[INITIAL_CAPACITY];
+    private int size;
+    private String deviceId;
+
+    public static int toE7(double degrees) {
+        return (int) Math.round(degrees * E7);
+    }
+
+    public static double fromE7(int e7) {
+        return e7 / E7;
+    }
+
+    public void clear() {
+        size = 0;
+        deviceId = null;
+    }
+
+    public void add(long seq, long timestamp, double latitude, double longitude) {
+        addE7(seq, timestamp, toE7(latitude), toE7(longitude), 1, 0);
+    }
+
+    public void add(long seq, long timestamp, double latitude, double longitude, int count, int spanSeconds) {
+        addE7(seq, timestamp, toE7(latitude), toE7(longitude), count, spanSeconds);
+    }
+
+    public void addE7(long seq, long timestamp, int latE7, int lngE7) {
+        addE7(seq, timestamp, latE7, lngE7, 1, 0);
+    }
+
+    public void addE7(long seq, long timestamp, int latE7, int lngE7, int count, int spanSeconds) {
+        if (size == seqs.length) {
+            grow();
+        }
+        seqs[size] = seq;
+        timestamps[size] = timestamp;
+        latitudesE7[size] = latE7;
+        longitudesE7[size] = lngE7;
+        counts[size] = count;
+        spansSeconds[size] = spanSeconds;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public long getSeq(int index) {
+        return seqs[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public int getLatitudeE7(int index) {
+        return latitudesE7[index];
+    }
+
+    public int getLongitudeE7(int index) {
+        return longitudesE7[index];
+    }
+
+    public double getLatitude(int index) {
+        return fromE7(latitudesE7[index]);
+    }
+
+    public double getLongitude(int index) {
+        return fromE7(longitudesE7[index]);
+    }
+
+    /**
+     * Number of fixes this entry stands for; 1 unless it is a dwell record.
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    public int getSpanSeconds(int index) {
+        return spansSeconds[index];
+    }
+
+    public boolean isDwell(int index) {
+        return counts[index] > 1;
+    }
+
+    /**
+     * Timestamp of the last fix covered by this entry.
+     */
+    public long getEndTimestamp(int index) {
+        return timestamps[index] + spansSeconds[index] * 1000L;
+    }
+
+    public long getLastSeq() {
+        return seqs[size - 1];
+    }
+
+    public void forEach(PointVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            visitor.visit(seqs[i], timestamps[i], latitudesE7[i], longitudesE7[i]);
+        }
+    }
+
+    private void grow() {
+        int capacity = seqs.length * 2;
+        seqs = Arrays.copyOf(seqs, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        latitudesE7 = Arrays.copyOf(latitudesE7, capacity);
+        longitudesE7 = Arrays.copyOf(longitudesE7, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        spansSeconds = Arrays.copyOf(spansSeconds, capacity);
+    }
+}
@@ -0,0 +1,607 @@
+package com.youssef.anti_thief.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed-capacity ring buffer of location fixes, memory-mapped from a file.
+ * Records are addressed by a monotonically increasing sequence number; the
+ * slot for a sequence is (seq % capacity). Expiring old fixes only advances
+ * the head pointer, and readers walk the mapped region without copying.
+ * The sync cursor is the first sequence the server has not acknowledged yet.
+ * Timestamps never decrease along the sequence, so time ranges are located
+ * with a binary search over the slots.
+ *
+ * Writes land in the shared mapping immediately, so they survive the process
+ * being killed. Flushing them to storage (msync) is group-committed: at most
+ * maxUncommittedFixes appends or maxCommitDelayMs of changes can be lost if
+ * the whole device goes down. See {@link #setCommitPolicy(int, long)}.
+ *
+ * Header layout (64 bytes):
+ *   int magic | int version | int capacity | int recordSize |
+ *   long headSeq | long tailSeq | long syncCursor | reserved
+ *
+ * Record layout (36 bytes):
+ *   long timestamp | double latitude | double longitude |
+ *   int count | int spanSeconds | int crc32
+ *
+ * A plain fix has count 1 and span 0. A dwell record collapses count
+ * stationary fixes: the coordinates are their centroid, timestamp is the
+ * first fix and timestamp + spanSeconds the last one.
+ *
+ * A small side record, mapped from a second file, holds ingestion state that
+ * belongs with the ring but is not a fix yet, e.g. an open dwell. It is
+ * written to alternating slots and committed together with the ring, so it
+ * costs a memory write per update instead of a file rewrite.
+ */
+public class LocationRingBuffer {
+
+    private static final String TAG = "LocationRingBuffer";
+    private static final String FILE_NAME = "location_ring.bin";
+    private static final String SIDE_FILE_SUFFIX = ".side";
+
+    private static final int MAGIC = 0x4C4F4352; // "LOCR"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 36;
+    private static final int PAYLOAD_SIZE = RECORD_SIZE - 4;
+    private static final int V1_VERSION = 1;
+    private static final int V1_RECORD_SIZE = 28;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_RECORD_SIZE = 12;
+    private static final int OFFSET_HEAD = 16;
+    private static final int OFFSET_TAIL = 24;
+    private static final int OFFSET_SYNC_CURSOR = 32;
+
+    // Side record slot: long generation | int length | int crc32 | payload
+    private static final int SIDE_SLOT_SIZE = 128;
+    private static final int SIDE_SLOT_HEADER = 16;
+    /** Largest side record payload, in bytes. */
+    public static final int MAX_SIDE_RECORD = SIDE_SLOT_SIZE - SIDE_SLOT_HEADER;
+
+    /** 72 hours of retention at one fix per minute. */
+    public static final int DEFAULT_CAPACITY = 72 * 60;
+
+    /** What to do with a new fix when every slot holds a retained record. */
+    public enum OverflowPolicy {
+        /** Overwrite the oldest record; the most recent trail is the most valuable evidence. */
+        DROP_OLDEST,
+        /** Keep the existing history and refuse the new fix. */
+        REJECT_NEWEST
+    }
+
+    public interface RecordVisitor {
+        void visit(long seq, long timestamp, double latitude, double longitude, int count, int spanSeconds);
+    }
+
+    private static LocationRingBuffer instance;
+
+    private static final ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "LocationRingCommit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final MappedByteBuffer mapped;
+    private final MappedByteBuffer side;
+    private final byte[] scratch = new byte[PAYLOAD_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    private long headSeq;
+    private long tailSeq;
+    private long syncCursor;
+
+    private int maxUncommittedFixes = 1;
+    private long maxCommitDelayMs = 0;
+    private int uncommittedFixes;
+    private int batchDepth;
+    private boolean dirty;
+    private boolean sideDirty;
+    private long sideGeneration;
+    private ScheduledFuture<?> scheduledCommit;
+
+    public static synchronized LocationRingBuffer getInstance(Context context) throws IOException {
+        if (instance == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+            instance = new LocationRingBuffer(file, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+        }
+        return instance;
+    }
+
+    LocationRingBuffer(File file, int capacity, OverflowPolicy overflowPolicy) throws IOException {
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+
+        RecordCollector previous = readExisting(file, capacity);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            if (raf.length() != length) {
+                raf.setLength(length);
+            }
+            // The mapping stays valid after the channel is closed
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(new File(file.getPath() + SIDE_FILE_SUFFIX), "rw")) {
+            raf.setLength(2 * SIDE_SLOT_SIZE);
+            side = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 2 * SIDE_SLOT_SIZE);
+        }
+        sideGeneration = Math.max(side.getLong(0), side.getLong(SIDE_SLOT_SIZE));
+
+        if (previous != null && previous.count < 0) {
+            headSeq = previous.headSeq;
+            tailSeq = previous.tailSeq;
+            syncCursor = previous.syncCursor;
+            recoverTail();
+        } else {
+            initialize();
+            if (previous != null) {
+                Log.w(TAG, "Ring layout changed, re-inserting " + previous.count + " records");
+                for (int i = 0; i < previous.count; i++) {
+                    append(previous.timestamps[i], previous.latitudes[i], previous.longitudes[i],
+                            previous.counts[i], previous.spans[i]);
+                }
+                // Re-inserted records are numbered from zero, so carry the acknowledged prefix over
+                long acknowledged = Math.max(0, previous.syncCursor - previous.headSeq);
+                if (acknowledged > 0) {
+                    acknowledgeThrough(acknowledged - 1);
+                }
+            }
+        }
+        Log.d(TAG, "Ring buffer opened: " + size() + "/" + capacity + " records");
+    }
+
+    /**
+     * Bounds how much can be lost on power failure. The mapping is flushed once
+     * maxUncommittedFixes appends are pending, or maxCommitDelayMs after the
+     * first uncommitted change, whichever comes first. The default (1, 0)
+     * flushes on every write.
+     */
+    public synchronized void setCommitPolicy(int maxUncommittedFixes, long maxCommitDelayMs) {
+        this.maxUncommittedFixes = Math.max(1, maxUncommittedFixes);
+        this.maxCommitDelayMs = Math.max(0, maxCommitDelayMs);
+        if (uncommittedFixes >= this.maxUncommittedFixes) {
+            commit();
+        }
+    }
+
+    /**
+     * Flushes every pending change to storage in one msync.
+     */
+    public synchronized void commit() {
+        if (scheduledCommit != null) {
+            scheduledCommit.cancel(false);
+            scheduledCommit = null;
+        }
+        if (!dirty) {
+            return;
+        }
+        mapped.force();
+        if (sideDirty) {
+            side.force();
+            sideDirty = false;
+        }
+        dirty = false;
+        uncommittedFixes = 0;
+    }
+
+    /**
+     * Starts a batch: changes made until the matching {@link #endBatch()} are
+     * group-committed together, so a batch costs at most one msync however
+     * many fixes it appends. Batches nest.
+     */
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch and applies the commit policy once to everything it changed.
+     */
+    public synchronized void endBatch() {
+        if (batchDepth == 0) {
+            return;
+        }
+        batchDepth--;
+        if (batchDepth == 0 && dirty) {
+            markDirty(false);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long size() {
+        return tailSeq - headSeq;
+    }
+
+    public synchronized boolean isEmpty() {
+        return tailSeq == headSeq;
+    }
+
+    public synchronized long getHeadSeq() {
+        return headSeq;
+    }
+
+    public synchronized long getTailSeq() {
+        return tailSeq;
+    }
+
+    /**
+     * First sequence that still needs to be uploaded. Records that expired
+     * before being acknowledged are skipped.
+     */
+    public synchronized long getSyncCursor() {
+        return Math.max(syncCursor, headSeq);
+    }
+
+    public synchronized long unsyncedCount() {
+        return tailSeq - getSyncCursor();
+    }
+
+    /**
+     * Marks every record up to and including seq as delivered. The watermark
+     * never moves backwards and never passes the newest record.
+     */
+    public synchronized void acknowledgeThrough(long seq) {
+        long cursor = Math.min(seq + 1, tailSeq);
+        if (cursor > syncCursor) {
+            syncCursor = cursor;
+            writePointers();
+            markDirty(false);
+        }
+    }
+
+    public synchronized long getFirstTimestamp() {
+        return isEmpty() ? 0 : mapped.getLong(slotOffset(headSeq));
+    }
+
+    public synchronized long getLastTimestamp() {
+        return isEmpty() ? 0 : mapped.getLong(slotOffset(tailSeq - 1));
+    }
+
+    /**
+     * Timestamp of the oldest record not yet acknowledged, or 0 when fully synced.
+     */
+    public synchronized long getOldestUnsyncedTimestamp() {
+        long cursor = getSyncCursor();
+        return cursor < tailSeq ? mapped.getLong(slotOffset(cursor)) : 0;
+    }
+
+    /**
+     * Appends a single fix; it becomes durable with the next group commit.
+     * Returns false when the buffer is full and the policy is REJECT_NEWEST.
+     */
+    public boolean append(long timestamp, double latitude, double longitude) {
+        return append(timestamp, latitude, longitude, 1, 0);
+    }
+
+    /**
+     * Appends a record standing for count fixes spread over spanSeconds.
+     */
+    public synchronized boolean append(long timestamp, double latitude, double longitude, int count, int spanSeconds) {
+        if (tailSeq - headSeq >= capacity) {
+            if (overflowPolicy == OverflowPolicy.REJECT_NEWEST) {
+                Log.w(TAG, "Ring buffer full, rejecting fix at " + timestamp);
+                return false;
+            }
+            headSeq++;
+        }
+
+        int offset = slotOffset(tailSeq);
+        mapped.putLong(offset, timestamp);
+        mapped.putDouble(offset + 8, latitude);
+        mapped.putDouble(offset + 16, longitude);
+        mapped.putInt(offset + 24, count);
+        mapped.putInt(offset + 28, spanSeconds);
+        mapped.putInt(offset + PAYLOAD_SIZE, checksum(offset));
+
+        // Publish the record only after its bytes are in place
+        tailSeq++;
+        writePointers();
+        markDirty(true);
+        return true;
+    }
+
+    /**
+     * Expires every record older than cutoffTime by advancing the head.
+     * Returns the number of records dropped; nothing is rewritten.
+     */
+    public synchronized int expireBefore(long cutoffTime) {
+        long start = headSeq;
+        while (headSeq < tailSeq && mapped.getLong(slotOffset(headSeq)) < cutoffTime) {
+            headSeq++;
+        }
+        int expired = (int) (headSeq - start);
+        if (expired > 0) {
+            writePointers();
+            markDirty(false);
+        }
+        return expired;
+    }
+
+    public synchronized void clear() {
+        headSeq = tailSeq;
+        syncCursor = tailSeq;
+        writePointers();
+        writeSideRecord(null);
+    }
+
+    /**
+     * Replaces the side record; null or empty removes it. The write goes to the
+     * older of the two slots, so a process killed halfway through leaves the
+     * previous record readable. It becomes durable with the next group commit
+     * and does not count towards maxUncommittedFixes.
+     */
+    public synchronized void writeSideRecord(byte[] record) {
+        int length = record == null ? 0 : record.length;
+        if (length > MAX_SIDE_RECORD) {
+            throw new IllegalArgumentException("Side record of " + length + " bytes, at most " + MAX_SIDE_RECORD);
+        }
+        sideGeneration++;
+        int slot = (int) (sideGeneration % 2) * SIDE_SLOT_SIZE;
+        ByteBuffer view = side.duplicate();
+        view.position(slot + SIDE_SLOT_HEADER);
+        if (length > 0) {
+            view.put(record);
+        }
+        side.putInt(slot + 8, length);
+        side.putInt(slot + 12, sideChecksum(slot, sideGeneration, length));
+        // The generation goes in last: it is what makes the slot the current one
+        side.putLong(slot, sideGeneration);
+        sideDirty = true;
+        markDirty(false);
+    }
+
+    /**
+     * The last side record written, or null if there is none or neither slot is intact.
+     */
+    public synchronized byte[] readSideRecord() {
+        int first = side.getLong(0) >= side.getLong(SIDE_SLOT_SIZE) ? 0 : SIDE_SLOT_SIZE;
+        for (int slot : new int[]{first, SIDE_SLOT_SIZE - first}) {
+            long generation = side.getLong(slot);
+            int length = side.getInt(slot + 8);
+            if (generation <= 0 || length < 0 || length > MAX_SIDE_RECORD
+                    || side.getInt(slot + 12) != sideChecksum(slot, generation, length)) {
+                continue;
+            }
+            if (length == 0) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            ByteBuffer view = side.duplicate();
+            view.position(slot + SIDE_SLOT_HEADER);
+            view.get(record);
+            return record;
+        }
+        return null;
+    }
+
+    public synchronized void forEach(RecordVisitor visitor) {
+        forEach(headSeq, tailSeq, visitor);
+    }
+
+    /**
+     * Visits the retained records in [fromSeq, toSeq) in sequence order.
+     */
+    public synchronized void forEach(long fromSeq, long toSeq, RecordVisitor visitor) {
+        long end = Math.min(toSeq, tailSeq);
+        for (long seq = Math.max(fromSeq, headSeq); seq < end; seq++) {
+            int offset = slotOffset(seq);
+            visitor.visit(seq, mapped.getLong(offset), mapped.getDouble(offset + 8), mapped.getDouble(offset + 16),
+                    mapped.getInt(offset + 24), mapped.getInt(offset + 28));
+        }
+    }
+
+    /**
+     * Visits the records with fromTime <= timestamp < toTime in O(log n + k).
+     */
+    public synchronized void forEachBetween(long fromTime, long toTime, RecordVisitor visitor) {
+        forEach(seqAtOrAfter(fromTime), seqAtOrAfter(toTime), visitor);
+    }
+
+    /**
+     * Returns the first retained sequence whose timestamp is >= time,
+     * or the tail sequence when every record is older.
+     */
+    public synchronized long seqAtOrAfter(long time) {
+        long low = headSeq;
+        long high = tailSeq;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (mapped.getLong(slotOffset(mid)) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void markDirty(boolean fixAppended) {
+        dirty = true;
+        if (fixAppended) {
+            uncommittedFixes++;
+        }
+        if (batchDepth > 0) {
+            return;
+        }
+        if (uncommittedFixes >= maxUncommittedFixes || maxCommitDelayMs == 0) {
+            commit();
+        } else if (scheduledCommit == null) {
+            scheduledCommit = committer.schedule(this::commit, maxCommitDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private int slotOffset(long seq) {
+        return HEADER_SIZE + (int) (seq % capacity) * RECORD_SIZE;
+    }
+
+    private int checksum(int offset) {
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset);
+        view.get(scratch, 0, PAYLOAD_SIZE);
+        crc.reset();
+        crc.update(scratch, 0, PAYLOAD_SIZE);
+        return (int) crc.getValue();
+    }
+
+    private int sideChecksum(int slot, long generation, int length) {
+        byte[] bytes = new byte[8 + 4 + length];
+        ByteBuffer.wrap(bytes).putLong(generation).putInt(length);
+        ByteBuffer view = side.duplicate();
+        view.position(slot + SIDE_SLOT_HEADER);
+        view.get(bytes, 12, bytes.length - 12);
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private void initialize() {
+        mapped.putInt(OFFSET_MAGIC, MAGIC);
+        mapped.putInt(OFFSET_VERSION, VERSION);
+        mapped.putInt(OFFSET_CAPACITY, capacity);
+        mapped.putInt(OFFSET_RECORD_SIZE, RECORD_SIZE);
+        headSeq = 0;
+        tailSeq = 0;
+        syncCursor = 0;
+        writePointers();
+        mapped.force();
+    }
+
+    private void writePointers() {
+        mapped.putLong(OFFSET_HEAD, headSeq);
+        mapped.putLong(OFFSET_TAIL, tailSeq);
+        mapped.putLong(OFFSET_SYNC_CURSOR, syncCursor);
+    }
+
+    /**
+     * Walks the tail back over records whose checksum does not match,
+     * which can only happen if the process died in the middle of an append.
+     */
+    private void recoverTail() {
+        long original = tailSeq;
+        while (tailSeq > headSeq) {
+            int offset = slotOffset(tailSeq - 1);
+            if (mapped.getInt(offset + PAYLOAD_SIZE) == checksum(offset)) {
+                break;
+            }
+            tailSeq--;
+        }
+        if (tailSeq != original) {
+            syncCursor = Math.min(syncCursor, tailSeq);
+            Log.w(TAG, "Dropped " + (original - tailSeq) + " torn records at tail");
+            writePointers();
+            mapped.force();
+        }
+    }
+
+    /**
+     * Reads the pointers of an existing ring file, or returns null when there is
+     * no usable file. Records are only copied out when the file was laid out for
+     * a different capacity or an older record layout and has to be rebuilt.
+     */
+    private static RecordCollector readExisting(File file, int capacity) throws IOException {
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+
+            int fileVersion = header.getInt(OFFSET_VERSION);
+            int fileRecordSize = header.getInt(OFFSET_RECORD_SIZE);
+            int fileCapacity = header.getInt(OFFSET_CAPACITY);
+            long head = header.getLong(OFFSET_HEAD);
+            long tail = header.getLong(OFFSET_TAIL);
+            long cursor = header.getLong(OFFSET_SYNC_CURSOR);
+
+            if (header.getInt(OFFSET_MAGIC) != MAGIC
+                    || !((fileVersion == VERSION && fileRecordSize == RECORD_SIZE)
+                        || (fileVersion == V1_VERSION && fileRecordSize == V1_RECORD_SIZE))
+                    || fileCapacity <= 0
+                    || file.length() != HEADER_SIZE + (long) fileCapacity * fileRecordSize
+                    || head < 0 || tail < head || tail - head > fileCapacity
+                    || cursor < 0 || cursor > tail) {
+                Log.w(TAG, "Ring file header invalid, starting a new ring");
+                return null;
+            }
+
+            RecordCollector collector = new RecordCollector(head, tail, cursor);
+            if (fileCapacity == capacity && fileVersion == VERSION) {
+                return collector;
+            }
+
+            collector.allocate();
+            ByteBuffer record = ByteBuffer.allocate(fileRecordSize);
+            for (long seq = head; seq < tail; seq++) {
+                record.clear();
+                channel.read(record, HEADER_SIZE + (seq % fileCapacity) * fileRecordSize);
+                if (fileVersion == V1_VERSION) {
+                    collector.add(record.getLong(0), record.getDouble(8), record.getDouble(16), 1, 0);
+                } else {
+                    collector.add(record.getLong(0), record.getDouble(8), record.getDouble(16),
+                            record.getInt(24), record.getInt(28));
+                }
+            }
+            return collector;
+        }
+    }
+
+    private static class RecordCollector {
+        final long headSeq;
+        final long tailSeq;
+        final long syncCursor;
+        long[] timestamps;
+        double[] latitudes;
+        double[] longitudes;
+        int[] counts;
+        int[] spans;
+        // -1 while the existing layout can be mapped as-is
+        int count = -1;
+
+        RecordCollector(long headSeq, long tailSeq, long syncCursor) {
+            this.headSeq = headSeq;
+            this.tailSeq = tailSeq;
+            this.syncCursor = syncCursor;
+        }
+
+        void allocate() {
+            int size = (int) (tailSeq - headSeq);
+            timestamps = new long[size];
+            latitudes = new double[size];
+            longitudes = new double[size];
+            counts = new int[size];
+            spans = new int[size];
+            count = 0;
+        }
+
+        void add(long timestamp, double latitude, double longitude, int recordCount, int spanSeconds) {
+            timestamps[count] = timestamp;
+            latitudes[count] = latitude;
+            longitudes[count] = longitude;
+            counts[count] = recordCount;
+            spans[count] = spanSeconds;
+            count++;
+        }
+    }
+}
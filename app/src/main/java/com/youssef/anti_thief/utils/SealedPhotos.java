@@ -0,0 +1,84 @@
+package com.youssef.anti_thief.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Alert photos at rest. Captured JPEGs wait in external storage until they are
+ * packed into the alert ZIP or mailed, and anything with storage access could
+ * read them there. With an AES key configured they are written through
+ * {@link SegmentedAesGcm} instead, as "name.jpg.sealed", and only decrypted
+ * again, one segment at a time, into the archive entry or mail attachment.
+ * Without a key they stay plain JPEGs, as before.
+ */
+public final class SealedPhotos {
+
+    private static final String TAG = "SealedPhotos";
+    public static final String SUFFIX = ".sealed";
+
+    private SealedPhotos() {
+    }
+
+    /**
+     * Writes jpeg as fileName in dir, sealed if a key is configured. Returns the
+     * path written, or null if it could not be saved.
+     */
+    public static String save(File dir, String fileName, byte[] jpeg) {
+        File plain = new File(dir, fileName);
+        File sealed = new File(dir, fileName + SUFFIX);
+        try {
+            if (AESEncryption.getKey() != null) {
+                try (OutputStream out = SegmentedAesGcm.newEncryptingStream(new FileOutputStream(sealed))) {
+                    out.write(jpeg);
+                }
+                return sealed.getAbsolutePath();
+            }
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to seal " + fileName + ", saving it plain", e);
+            sealed.delete();
+        }
+
+        try (FileOutputStream out = new FileOutputStream(plain)) {
+            out.write(jpeg);
+            return plain.getAbsolutePath();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save " + fileName, e);
+            return null;
+        }
+    }
+
+    public static boolean isSealed(File photo) {
+        return photo.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * The photo's name without the sealed suffix, e.g. for an archive entry.
+     */
+    public static String plainName(File photo) {
+        String name = photo.getName();
+        return isSealed(photo) ? name.substring(0, name.length() - SUFFIX.length()) : name;
+    }
+
+    /**
+     * Reads the JPEG, decrypting it on the fly if it is sealed.
+     */
+    public static InputStream open(File photo) throws IOException {
+        InputStream in = new FileInputStream(photo);
+        if (!isSealed(photo)) {
+            return in;
+        }
+        try {
+            return SegmentedAesGcm.newDecryptingStream(in);
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            in.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Cannot open " + photo, e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.youssef.anti_thief.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Upload pages that were already serialized and encrypted, kept on disk until
+ * the server acknowledges them.
+ *
+ * A failed secure sync used to redo the whole pipeline on every retry: read the
+ * cache, simplify, encode, encrypt under a fresh IV. With a sealed segment the
+ * first attempt's {@link SealedEnvelope} is written out once and every retry
+ * posts the same file, so a retry costs only I/O, and the server can drop a
+ * repeat by its segment id.
+ *
+ * Segments are keyed by the seq range of the cache page they were sealed from.
+ * The metadata lives in the file name, "firstSeq_lastSeq_firstTimestamp_id.seg",
+ * so the store is rebuilt from a directory listing after a restart. Only pages
+ * in flight ever have a segment, which bounds the store to a few hundred KB.
+ */
+public class SealedSegmentStore {
+
+    private static final String TAG = "SealedSegmentStore";
+    private static final String DIR_NAME = "sealed_segments";
+    private static final String SUFFIX = ".seg";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * One sealed page: the envelope in file covers cache seqs [firstSeq, lastSeq].
+     */
+    public static class Segment {
+        public final String id;
+        public final long firstSeq;
+        public final long lastSeq;
+        public final long firstTimestamp;
+        public final File file;
+
+        Segment(String id, long firstSeq, long lastSeq, long firstTimestamp, File file) {
+            this.id = id;
+            this.firstSeq = firstSeq;
+            this.lastSeq = lastSeq;
+            this.firstTimestamp = firstTimestamp;
+            this.file = file;
+        }
+
+        public int getFixCount() {
+            return (int) (lastSeq - firstSeq + 1);
+        }
+    }
+
+    private final File dir;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    public SealedSegmentStore(Context context) {
+        dir = new File(context.getApplicationContext().getFilesDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Failed to create " + dir);
+        }
+        load();
+    }
+
+    private synchronized void load() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Segment segment = parse(file);
+            if (segment == null) {
+                // Leftover of an interrupted write, or not ours
+                file.delete();
+            } else {
+                segments.put(segment.firstSeq, segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            Log.d(TAG, "Loaded " + segments.size() + " sealed segments awaiting upload");
+        }
+    }
+
+    private static Segment parse(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) {
+            return null;
+        }
+        String[] parts = name.substring(0, name.length() - SUFFIX.length()).split("_", 4);
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            return new Segment(parts[3], Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]), file);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The segment sealed from the page starting at firstSeq, or null if there is none.
+     */
+    public synchronized Segment find(long firstSeq) {
+        return segments.get(firstSeq);
+    }
+
+    /**
+     * Durably stores body as the segment for [firstSeq, lastSeq], under a new
+     * segment id, replacing any older segment for the same page.
+     */
+    public Segment put(long firstSeq, long lastSeq, long firstTimestamp, byte[] body) throws IOException {
+        String id = UUID.randomUUID().toString();
+        String name = firstSeq + "_" + lastSeq + "_" + firstTimestamp + "_" + id;
+        File tmp = new File(dir, name + TMP_SUFFIX);
+        File file = new File(dir, name + SUFFIX);
+
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(body);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to commit sealed segment " + file);
+        }
+
+        Segment segment = new Segment(id, firstSeq, lastSeq, firstTimestamp, file);
+        Segment replaced;
+        synchronized (this) {
+            replaced = segments.put(firstSeq, segment);
+        }
+        if (replaced != null) {
+            replaced.file.delete();
+        }
+        return segment;
+    }
+
+    /**
+     * Drops one segment, e.g. one the server could not open.
+     */
+    public void discard(Segment segment) {
+        synchronized (this) {
+            if (segments.get(segment.firstSeq) == segment) {
+                segments.remove(segment.firstSeq);
+            }
+        }
+        segment.file.delete();
+    }
+
+    /**
+     * Drops every segment whose page starts before seq: once the sync cursor has
+     * moved past its start it was either acknowledged or expired from the cache.
+     * Returns the number of segments dropped.
+     */
+    public int discardBefore(long seq) {
+        List<Segment> dropped = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Segment> it = segments.headMap(seq, false).values().iterator();
+            while (it.hasNext()) {
+                dropped.add(it.next());
+                it.remove();
+            }
+        }
+        for (Segment segment : dropped) {
+            segment.file.delete();
+        }
+        return dropped.size();
+    }
+
+    public synchronized int size() {
+        return segments.size();
+    }
+}
@@ -0,0 +1,430 @@
+package com.youssef.anti_thief.utils;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Segmented AES-GCM for payloads too large to encrypt in one piece, e.g. the
+ * photos of an alert. The plaintext is cut into segments of segmentSize bytes
+ * that are sealed separately, so encryption and decryption run in memory
+ * bounded by one segment, and any single segment can be decrypted on its own.
+ *
+ * Layout:
+ *   header (48 bytes): byte 'A' | byte 'G' | byte version | byte 0 |
+ *                      int segmentSize | 32-byte random salt |
+ *                      7-byte random nonce prefix | byte 0
+ *   segments:          AES-GCM(plaintext segment) with its 16-byte tag
+ *
+ * Every stream is sealed under its own key, derived from the configured key
+ * and the salt with HKDF-SHA256, so the 12-byte GCM nonces of different
+ * streams can never collide under one key however many streams are written.
+ * Segment i uses nonce = prefix | int i | byte last, where last is 1 only for
+ * the final segment, and the header as associated data. Reordering, dropping
+ * or truncating segments, turning a middle segment into the last one, or
+ * splicing segments between streams therefore fails authentication. Every
+ * segment but the last holds exactly segmentSize bytes; the last holds
+ * 1..segmentSize, or 0 for an empty stream.
+ */
+public final class SegmentedAesGcm {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int HEADER_SIZE = 48;
+    public static final int TAG_SIZE = 16;
+
+    private static final String ALGORITHM = "AES/GCM/NoPadding";
+    private static final String HMAC = "HmacSHA256";
+    private static final byte[] KEY_INFO = "segmented-aes-gcm v1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte MAGIC_0 = 'A';
+    private static final byte MAGIC_1 = 'G';
+    private static final byte VERSION = 1;
+    private static final int SALT_OFFSET = 8;
+    private static final int SALT_SIZE = 32;
+    private static final int PREFIX_OFFSET = SALT_OFFSET + SALT_SIZE;
+    private static final int PREFIX_SIZE = 7;
+    private static final int NONCE_SIZE = 12;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final long MAX_SEGMENTS = 0xFFFFFFFFL;
+
+    private SegmentedAesGcm() {
+    }
+
+    /**
+     * Size of the stream produced for plaintextSize bytes.
+     */
+    public static long ciphertextSize(long plaintextSize, int segmentSize) {
+        long segments = Math.max(1, (plaintextSize + segmentSize - 1) / segmentSize);
+        return HEADER_SIZE + plaintextSize + segments * TAG_SIZE;
+    }
+
+    /**
+     * Returns a stream that encrypts everything written to it into out, with the
+     * configured key. Closing it writes the final segment and closes out.
+     */
+    public static OutputStream newEncryptingStream(OutputStream out) throws GeneralSecurityException, IOException {
+        return newEncryptingStream(requireKey(), out, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static OutputStream newEncryptingStream(SecretKey key, OutputStream out, int segmentSize)
+            throws GeneralSecurityException, IOException {
+        return new EncryptingOutputStream(key, out, segmentSize);
+    }
+
+    /**
+     * Returns a stream of the plaintext of in, with the configured key. A segment
+     * that fails authentication, or a stream cut short, is reported as an IOException.
+     */
+    public static InputStream newDecryptingStream(InputStream in) throws GeneralSecurityException, IOException {
+        return newDecryptingStream(requireKey(), in);
+    }
+
+    public static InputStream newDecryptingStream(SecretKey key, InputStream in) throws GeneralSecurityException, IOException {
+        return new DecryptingInputStream(key, in);
+    }
+
+    /**
+     * Encrypts the remaining bytes of plaintext into out, which needs
+     * {@link #ciphertextSize} bytes of room. Either buffer may be direct or mapped.
+     */
+    public static void encrypt(SecretKey key, ByteBuffer plaintext, ByteBuffer out, int segmentSize)
+            throws GeneralSecurityException {
+        Header header = Header.create(key, segmentSize);
+        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        out.put(header.bytes);
+
+        long segment = 0;
+        do {
+            int length = Math.min(segmentSize, plaintext.remaining());
+            ByteBuffer chunk = plaintext.slice();
+            chunk.limit(length);
+            plaintext.position(plaintext.position() + length);
+            header.init(cipher, Cipher.ENCRYPT_MODE, segment++, !plaintext.hasRemaining());
+            cipher.doFinal(chunk, out);
+        } while (plaintext.hasRemaining());
+    }
+
+    /**
+     * Random access to the segments of a complete ciphertext, e.g. a mapped
+     * file: each segment is located by arithmetic and authenticated on its own.
+     * Not thread safe.
+     */
+    public static final class SegmentReader {
+        private final ByteBuffer ciphertext;
+        private final Header header;
+        private final int segmentCount;
+        private final int lastSegmentLength;
+        private final Cipher cipher;
+
+        /**
+         * Reads a ciphertext sealed with the configured key.
+         */
+        public SegmentReader(ByteBuffer ciphertext) throws GeneralSecurityException, IOException {
+            this(requireKey(), ciphertext);
+        }
+
+        public SegmentReader(SecretKey key, ByteBuffer ciphertext) throws GeneralSecurityException, IOException {
+            this.ciphertext = ciphertext.duplicate();
+            if (this.ciphertext.remaining() < HEADER_SIZE) {
+                throw new IOException("Truncated segmented AES-GCM header");
+            }
+            byte[] bytes = new byte[HEADER_SIZE];
+            this.ciphertext.duplicate().get(bytes);
+            header = Header.parse(key, bytes);
+
+            long body = this.ciphertext.remaining() - HEADER_SIZE;
+            long fullSegment = header.segmentSize + TAG_SIZE;
+            long count = Math.max(1, (body + fullSegment - 1) / fullSegment);
+            long last = body - (count - 1) * fullSegment;
+            if (last < TAG_SIZE || count > Integer.MAX_VALUE) {
+                throw new IOException("Truncated segmented AES-GCM stream");
+            }
+            segmentCount = (int) count;
+            lastSegmentLength = (int) last;
+            cipher = Cipher.getInstance(ALGORITHM);
+        }
+
+        public int getSegmentCount() {
+            return segmentCount;
+        }
+
+        public int getSegmentSize() {
+            return header.segmentSize;
+        }
+
+        public long getPlaintextSize() {
+            return (long) (segmentCount - 1) * header.segmentSize + lastSegmentLength - TAG_SIZE;
+        }
+
+        /**
+         * Decrypts segment index into out and returns the number of plaintext bytes,
+         * segmentSize for all but the last segment.
+         */
+        public int decryptSegment(int index, ByteBuffer out) throws GeneralSecurityException {
+            if (index < 0 || index >= segmentCount) {
+                throw new IndexOutOfBoundsException("Segment " + index + " of " + segmentCount);
+            }
+            boolean last = index == segmentCount - 1;
+            long start = HEADER_SIZE + (long) index * (header.segmentSize + TAG_SIZE);
+            ByteBuffer segment = ciphertext.duplicate();
+            segment.position((int) (segment.position() + start));
+            segment.limit(segment.position() + (last ? lastSegmentLength : header.segmentSize + TAG_SIZE));
+
+            header.init(cipher, Cipher.DECRYPT_MODE, index, last);
+            return cipher.doFinal(segment, out);
+        }
+    }
+
+    /**
+     * The stream header and the per-stream key derived from it.
+     */
+    private static final class Header {
+        final byte[] bytes;
+        final int segmentSize;
+        final SecretKey streamKey;
+        final byte[] nonce = new byte[NONCE_SIZE];
+
+        private Header(SecretKey key, byte[] bytes, int segmentSize) throws GeneralSecurityException {
+            this.bytes = bytes;
+            this.segmentSize = segmentSize;
+            this.streamKey = deriveStreamKey(key, Arrays.copyOfRange(bytes, SALT_OFFSET, SALT_OFFSET + SALT_SIZE));
+            System.arraycopy(bytes, PREFIX_OFFSET, nonce, 0, PREFIX_SIZE);
+        }
+
+        static Header create(SecretKey key, int segmentSize) throws GeneralSecurityException {
+            if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IllegalArgumentException("Segment size out of range: " + segmentSize);
+            }
+            byte[] bytes = new byte[HEADER_SIZE];
+            bytes[0] = MAGIC_0;
+            bytes[1] = MAGIC_1;
+            bytes[2] = VERSION;
+            ByteBuffer.wrap(bytes).putInt(4, segmentSize);
+            byte[] random = new byte[SALT_SIZE + PREFIX_SIZE];
+            AESEncryption.nextRandomBytes(random);
+            System.arraycopy(random, 0, bytes, SALT_OFFSET, random.length);
+            return new Header(key, bytes, segmentSize);
+        }
+
+        static Header parse(SecretKey key, byte[] bytes) throws GeneralSecurityException, IOException {
+            if (bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1) {
+                throw new IOException("Not a segmented AES-GCM stream");
+            }
+            if (bytes[2] != VERSION) {
+                throw new IOException("Unsupported segmented AES-GCM version " + bytes[2]);
+            }
+            int segmentSize = ByteBuffer.wrap(bytes).getInt(4);
+            if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IOException("Segment size out of range: " + segmentSize);
+            }
+            return new Header(key, bytes, segmentSize);
+        }
+
+        void init(Cipher cipher, int mode, long segment, boolean last) throws GeneralSecurityException {
+            if (segment > MAX_SEGMENTS) {
+                throw new GeneralSecurityException("Too many segments");
+            }
+            nonce[7] = (byte) (segment >>> 24);
+            nonce[8] = (byte) (segment >>> 16);
+            nonce[9] = (byte) (segment >>> 8);
+            nonce[10] = (byte) segment;
+            nonce[11] = (byte) (last ? 1 : 0);
+            cipher.init(mode, streamKey, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+            cipher.updateAAD(bytes);
+        }
+    }
+
+    private static final class EncryptingOutputStream extends FilterOutputStream {
+        private final Cipher cipher;
+        private final Header header;
+        private final byte[] plaintext;
+        private final byte[] sealed;
+        private int filled;
+        private long segment;
+        private boolean closed;
+
+        EncryptingOutputStream(SecretKey key, OutputStream out, int segmentSize) throws GeneralSecurityException, IOException {
+            super(out);
+            this.cipher = Cipher.getInstance(ALGORITHM);
+            this.header = Header.create(key, segmentSize);
+            this.plaintext = new byte[segmentSize];
+            this.sealed = new byte[segmentSize + TAG_SIZE];
+            out.write(header.bytes);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                // A full segment is only sealed once more data shows it is not the last
+                if (filled == plaintext.length) {
+                    seal(false);
+                }
+                int n = Math.min(len, plaintext.length - filled);
+                System.arraycopy(b, off, plaintext, filled, n);
+                filled += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                seal(true);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void seal(boolean last) throws IOException {
+            try {
+                header.init(cipher, Cipher.ENCRYPT_MODE, segment++, last);
+                int n = cipher.doFinal(plaintext, 0, filled, sealed, 0);
+                out.write(sealed, 0, n);
+                filled = 0;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot seal segment " + (segment - 1), e);
+            }
+        }
+    }
+
+    private static final class DecryptingInputStream extends InputStream {
+        private final InputStream in;
+        private final Cipher cipher;
+        private final Header header;
+        // One sealed segment plus one byte of look-ahead to tell whether it is the last
+        private final byte[] sealed;
+        private final byte[] plaintext;
+        private int carried;
+        private int position;
+        private int limit;
+        private long segment;
+        private boolean finished;
+
+        DecryptingInputStream(SecretKey key, InputStream in) throws GeneralSecurityException, IOException {
+            this.in = in;
+            this.cipher = Cipher.getInstance(ALGORITHM);
+            byte[] bytes = new byte[HEADER_SIZE];
+            if (readFully(in, bytes, 0, HEADER_SIZE) < HEADER_SIZE) {
+                throw new EOFException("Truncated segmented AES-GCM header");
+            }
+            this.header = Header.parse(key, bytes);
+            this.sealed = new byte[header.segmentSize + TAG_SIZE + 1];
+            this.plaintext = new byte[header.segmentSize];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == limit) {
+                if (finished) {
+                    return -1;
+                }
+                open();
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(plaintext, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private void open() throws IOException {
+            int n = carried + readFully(in, sealed, carried, sealed.length - carried);
+            boolean last = n < sealed.length;
+            int length = last ? n : sealed.length - 1;
+            if (length < TAG_SIZE) {
+                throw new EOFException("Truncated segmented AES-GCM stream at segment " + segment);
+            }
+            try {
+                header.init(cipher, Cipher.DECRYPT_MODE, segment, last);
+                limit = cipher.doFinal(sealed, 0, length, plaintext, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment " + segment + " failed authentication", e);
+            }
+            position = 0;
+            segment++;
+            if (last) {
+                finished = true;
+                carried = 0;
+            } else {
+                sealed[0] = sealed[sealed.length - 1];
+                carried = 1;
+            }
+        }
+    }
+
+    private static SecretKey requireKey() throws GeneralSecurityException {
+        SecretKey key = AESEncryption.getKey();
+        if (key == null) {
+            throw new GeneralSecurityException("AES key not configured");
+        }
+        return key;
+    }
+
+    /**
+     * HKDF-SHA256 (RFC 5869) of key with the stream's salt, one 32-byte block.
+     */
+    private static SecretKey deriveStreamKey(SecretKey key, byte[] salt) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC);
+        mac.init(new SecretKeySpec(salt, HMAC));
+        byte[] pseudoRandomKey = mac.doFinal(key.getEncoded());
+        mac.init(new SecretKeySpec(pseudoRandomKey, HMAC));
+        mac.update(KEY_INFO);
+        mac.update((byte) 1);
+        return new SecretKeySpec(mac.doFinal(), "AES");
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, offset + total, length - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
@@ -24,7 +24,6 @@ import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -38,6 +37,8 @@ public class ServiceCameraCapture {
     private static final String TAG = "ServiceCameraCapture";
     private static final int PHOTOS_PER_CAMERA = 4;
     private static final long PHOTO_INTERVAL_MS = 50;
+    private static final long CAPTURE_WAKE_TIMEOUT_MS = 30 * 1000L;
+    private static final long PACKAGING_WAKE_TIMEOUT_MS = 2 * 60 * 1000L;
 
     private final Context context;
     private CameraManager cameraManager;
@@ -52,6 +53,8 @@ public class ServiceCameraCapture {
     private int currentPhotoCount = 0;
     private boolean isCapturing = false;
     private CaptureCallback callback;
+    // Held from capturePhotos() until finishCapture()
+    private WakeLockManager.Lease captureLease;
 
     public interface CaptureCallback {
         void onCaptureComplete(String backPath, String frontPath);
@@ -61,6 +64,7 @@ public class ServiceCameraCapture {
     public ServiceCameraCapture(Context context) {
         this.context = context;
         this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        WakeLockManager.init(context);
     }
 
     public void capturePhotos(CaptureCallback callback) {
@@ -74,6 +78,7 @@ public class ServiceCameraCapture {
         this.backPhotoPaths.clear();
         this.frontPhotoPaths.clear();
         this.currentPhotoCount = 0;
+        this.captureLease = WakeLockManager.acquire(WakeLockManager.CAPTURE, CAPTURE_WAKE_TIMEOUT_MS);
 
         Log.d(TAG, "=== STARTING SERVICE-BASED CAMERA CAPTURE ===");
         Log.d(TAG, "Will capture " + PHOTOS_PER_CAMERA + " photos per camera with " + PHOTO_INTERVAL_MS + "ms interval");
@@ -289,16 +294,11 @@ public class ServiceCameraCapture {
     private String saveImage(byte[] bytes, boolean isFront, int photoIndex) {
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
         String fileName = (isFront ? "front_" : "back_") + timestamp + "_" + (photoIndex + 1) + ".jpg";
-        File photoFile = new File(context.getExternalFilesDir(null), fileName);
-
-        try (FileOutputStream fos = new FileOutputStream(photoFile)) {
-            fos.write(bytes);
-            Log.d(TAG, "Image saved: " + photoFile.getAbsolutePath());
-            return photoFile.getAbsolutePath();
-        } catch (Exception e) {
-            Log.e(TAG, "Error saving image", e);
-            return null;
+        String path = SealedPhotos.save(context.getExternalFilesDir(null), fileName, bytes);
+        if (path != null) {
+            Log.d(TAG, "Image saved: " + path);
         }
+        return path;
     }
 
     private void closeCamera() {
@@ -331,6 +331,10 @@ public class ServiceCameraCapture {
 
         closeCamera();
         isCapturing = false;
+        if (captureLease != null) {
+            captureLease.close();
+            captureLease = null;
+        }
 
         if (backgroundThread != null) {
             backgroundThread.quitSafely();
@@ -342,7 +346,10 @@ public class ServiceCameraCapture {
             if (!allPhotoPaths.isEmpty()) {
                 Log.d(TAG, ">>> Creating encrypted ZIP with " + allPhotoPaths.size() + " photos + 24h locations from backend");
 
-                String zipPath = ZipCreator.createSecurityZip(context, allPhotoPaths);
+                String zipPath;
+                try (WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.PACKAGING, PACKAGING_WAKE_TIMEOUT_MS)) {
+                    zipPath = ZipCreator.createSecurityZip(context, allPhotoPaths);
+                }
 
                 if (zipPath != null) {
                     String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date());
@@ -0,0 +1,243 @@
+package com.youssef.anti_thief.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Compact block codec for location history.
+ * Consecutive fixes differ by tiny amounts, so each point is stored as the
+ * zigzag-varint delta of its seq, timestamp and E7 coordinates from the
+ * previous point (the same idea the polyline encoder uses). A slow-moving
+ * trail costs about 8 bytes per fix instead of a 36-byte ring record or
+ * ~110 bytes as JSON.
+ *
+ * It is the wire format of LocationBatchCodec. The on-device history stays in
+ * fixed-size ring records, which seq lookup and in-place expiry rely on.
+ *
+ * Dwell records are flagged in the low bit of the seq delta and only then
+ * carry their extra count and span, so plain fixes pay nothing for them.
+ *
+ * Blocks are sealed: once written they are never appended to, and a CRC32
+ * trailer covers the whole block so corruption is detected on decode.
+ *
+ * Block layout:
+ *   byte magic | byte version | varint count | varint payloadLength |
+ *   payload (count x [varint (dSeq << 1 | dwell), zigzag dTime, zigzag dLat, zigzag dLng,
+ *            dwell ? (varint count, varint spanSeconds)]) |
+ *   int crc32 (big endian, over everything before it)
+ */
+public final class TrajectoryCodec {
+
+    private static final byte MAGIC = (byte) 0xB7;
+    private static final byte VERSION = 2;
+    private static final int TRAILER_SIZE = 4;
+
+    /** Points per block; keeps a corrupt block from taking out more than a few hours of history. */
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    private TrajectoryCodec() {
+    }
+
+    /**
+     * Encodes all points as consecutive sealed blocks of at most blockSize points.
+     */
+    public static byte[] encode(LocationColumns points, int blockSize) {
+        Sink sink = new Sink(points.size() * 4 + 16);
+        for (int from = 0; from < points.size(); from += blockSize) {
+            encodeBlock(points, from, Math.min(points.size(), from + blockSize), sink);
+        }
+        return sink.toByteArray();
+    }
+
+    public static byte[] encode(LocationColumns points) {
+        return encode(points, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Decodes every block in data and appends the points to into.
+     */
+    public static void decode(byte[] data, LocationColumns into) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            offset = decodeBlock(data, offset, into);
+        }
+    }
+
+    /**
+     * Decodes the block starting at offset, appends its points to into and
+     * returns the offset just past the block.
+     */
+    public static int decodeBlock(byte[] data, int offset, LocationColumns into) throws IOException {
+        Source source = new Source(data, offset);
+        if (source.readByte() != MAGIC) {
+            throw new IOException("Not a trajectory block at offset " + offset);
+        }
+        int version = source.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trajectory block version " + version);
+        }
+        int count = (int) source.readVarint();
+        int payloadLength = (int) source.readVarint();
+        int payloadStart = source.position;
+        int end = payloadStart + payloadLength;
+        if (count < 0 || payloadLength < 0 || end + TRAILER_SIZE > data.length) {
+            throw new IOException("Truncated trajectory block at offset " + offset);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, end - offset);
+        int stored = ((data[end] & 0xff) << 24) | ((data[end + 1] & 0xff) << 16)
+                | ((data[end + 2] & 0xff) << 8) | (data[end + 3] & 0xff);
+        if (stored != (int) crc.getValue()) {
+            throw new IOException("Trajectory block checksum mismatch at offset " + offset);
+        }
+
+        long seq = 0;
+        long timestamp = 0;
+        int lat = 0;
+        int lng = 0;
+        for (int i = 0; i < count; i++) {
+            long seqField = source.readVarint();
+            seq += seqField >>> 1;
+            timestamp += unzigzag(source.readVarint());
+            lat += (int) unzigzag(source.readVarint());
+            lng += (int) unzigzag(source.readVarint());
+            if ((seqField & 1) != 0) {
+                int fixes = (int) source.readVarint();
+                int span = (int) source.readVarint();
+                into.addE7(seq, timestamp, lat, lng, fixes, span);
+            } else {
+                into.addE7(seq, timestamp, lat, lng);
+            }
+        }
+        if (source.position != end) {
+            throw new IOException("Trajectory block length mismatch at offset " + offset);
+        }
+        return end + TRAILER_SIZE;
+    }
+
+    private static void encodeBlock(LocationColumns points, int from, int to, Sink out) {
+        Sink payload = new Sink((to - from) * 4);
+        long prevSeq = 0;
+        long prevTime = 0;
+        int prevLat = 0;
+        int prevLng = 0;
+        for (int i = from; i < to; i++) {
+            long seq = points.getSeq(i);
+            long timestamp = points.getTimestamp(i);
+            int lat = points.getLatitudeE7(i);
+            int lng = points.getLongitudeE7(i);
+
+            boolean dwell = points.isDwell(i);
+            payload.writeVarint((seq - prevSeq) << 1 | (dwell ? 1 : 0));
+            payload.writeVarint(zigzag(timestamp - prevTime));
+            payload.writeVarint(zigzag((long) lat - prevLat));
+            payload.writeVarint(zigzag((long) lng - prevLng));
+            if (dwell) {
+                payload.writeVarint(points.getCount(i));
+                payload.writeVarint(points.getSpanSeconds(i));
+            }
+
+            prevSeq = seq;
+            prevTime = timestamp;
+            prevLat = lat;
+            prevLng = lng;
+        }
+
+        int start = out.length;
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeVarint(to - from);
+        out.writeVarint(payload.length);
+        out.write(payload.buffer, 0, payload.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(out.buffer, start, out.length - start);
+        out.writeInt((int) crc.getValue());
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Sink {
+        byte[] buffer;
+        int length;
+
+        Sink(int capacity) {
+            buffer = new byte[Math.max(16, capacity)];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buffer[length++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            buffer[length++] = (byte) (v >>> 24);
+            buffer[length++] = (byte) (v >>> 16);
+            buffer[length++] = (byte) (v >>> 8);
+            buffer[length++] = (byte) v;
+        }
+
+        void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buffer[length++] = (byte) v;
+        }
+
+        void write(byte[] src, int offset, int count) {
+            ensure(count);
+            System.arraycopy(src, offset, buffer, length, count);
+            length += count;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+    }
+
+    private static final class Source {
+        final byte[] data;
+        int position;
+
+        Source(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        int readByte() throws IOException {
+            if (position >= data.length) {
+                throw new IOException("Unexpected end of trajectory data");
+            }
+            return data[position++];
+        }
+
+        long readVarint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint in trajectory data");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.youssef.anti_thief.utils;
+
+import java.util.Arrays;
+
+/**
+ * Time-aware Douglas-Peucker simplification of location history.
+ * A point is dropped only when it lies within toleranceMeters of the line
+ * between the points kept around it, and kept points are never more than
+ * maxGapMs apart (unless the raw fixes already were), so the simplified
+ * trail still says where the device was and roughly when.
+ *
+ * First and last points and dwell records are always kept. Work is done in
+ * runs between those anchors, which bounds the recursion to one run at a
+ * time and lets the caller feed a backlog batch by batch.
+ * Not thread safe; the scratch arrays are reused between calls.
+ */
+public class TrajectorySimplifier {
+
+    private static final double EARTH_RADIUS_M = 6371000;
+    private static final double E7_TO_RADIANS = Math.PI / 180 / 1e7;
+
+    private final double toleranceMeters;
+    private final long maxGapMs;
+
+    private boolean[] keep = new boolean[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private int[] stack = new int[0];
+
+    public TrajectorySimplifier(double toleranceMeters, long maxGapMs) {
+        this.toleranceMeters = toleranceMeters;
+        this.maxGapMs = maxGapMs;
+    }
+
+    /**
+     * Copies the points of from worth keeping into into (cleared first) and
+     * returns how many were kept. The device id is carried over.
+     */
+    public int simplify(LocationColumns from, LocationColumns into) {
+        into.clear();
+        into.setDeviceId(from.getDeviceId());
+        int n = from.size();
+        if (n == 0) {
+            return 0;
+        }
+
+        ensureCapacity(n);
+        project(from, n);
+        Arrays.fill(keep, 0, n, false);
+        keep[0] = true;
+        keep[n - 1] = true;
+
+        int runStart = 0;
+        for (int i = 1; i < n; i++) {
+            boolean anchor = i == n - 1 || from.isDwell(i)
+                    || from.getTimestamp(i) - from.getTimestamp(i - 1) > maxGapMs;
+            if (!anchor) {
+                continue;
+            }
+            // A gap anchor ends the run at the point before the gap as well
+            if (from.getTimestamp(i) - from.getTimestamp(i - 1) > maxGapMs && i - 1 > runStart) {
+                keep[i - 1] = true;
+                simplifyRun(from, runStart, i - 1);
+                runStart = i - 1;
+            }
+            keep[i] = true;
+            simplifyRun(from, runStart, i);
+            runStart = i;
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                into.addE7(from.getSeq(i), from.getTimestamp(i), from.getLatitudeE7(i),
+                        from.getLongitudeE7(i), from.getCount(i), from.getSpanSeconds(i));
+            }
+        }
+        return into.size();
+    }
+
+    private void simplifyRun(LocationColumns points, int first, int last) {
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            if (b - a < 2) {
+                continue;
+            }
+
+            int split = -1;
+            double worst = 0;
+            for (int i = a + 1; i < b; i++) {
+                double d = segmentDistance(xs[i], ys[i], xs[a], ys[a], xs[b], ys[b]);
+                if (d > worst) {
+                    worst = d;
+                    split = i;
+                }
+            }
+            if (worst <= toleranceMeters) {
+                if (points.getTimestamp(b) - points.getTimestamp(a) <= maxGapMs) {
+                    continue;
+                }
+                // Straight enough, but too long without a kept point: split in time
+                split = a + 1;
+                long middle = (points.getTimestamp(a) + points.getTimestamp(b)) / 2;
+                while (split < b - 1 && points.getTimestamp(split) < middle) {
+                    split++;
+                }
+            }
+
+            keep[split] = true;
+            stack[top++] = a;
+            stack[top++] = split;
+            stack[top++] = split;
+            stack[top++] = b;
+        }
+    }
+
+    /**
+     * Projects to local equirectangular meters around the batch's first point.
+     */
+    private void project(LocationColumns points, int n) {
+        double cos = Math.cos(points.getLatitudeE7(0) * E7_TO_RADIANS);
+        for (int i = 0; i < n; i++) {
+            xs[i] = x(points.getLongitudeE7(i), cos);
+            ys[i] = y(points.getLatitudeE7(i));
+        }
+    }
+
+    private static double x(int lngE7, double cos) {
+        return lngE7 * E7_TO_RADIANS * cos * EARTH_RADIUS_M;
+    }
+
+    private static double y(int latE7) {
+        return latE7 * E7_TO_RADIANS * EARTH_RADIUS_M;
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+
+    private void ensureCapacity(int n) {
+        if (keep.length < n) {
+            keep = new boolean[n];
+            xs = new double[n];
+            ys = new double[n];
+            // Each pass pops one range and pushes at most two
+            stack = new int[2 * n + 4];
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.youssef.anti_thief.utils;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short, timed partial wake locks around real work, instead of one lock held
+ * for the life of the service.
+ *
+ * Each reason gets its own lock, tagged "antithief:<reason>" so it shows up by
+ * name in dumpsys power and battery stats. Leases are reference counted per
+ * reason: the lock is taken by the first lease and dropped by the last, and
+ * every lease pushes the lock's timeout out to at least its own deadline. A
+ * lease that is never closed costs at most its timeout.
+ *
+ *   try (WakeLockManager.Lease lease = WakeLockManager.acquire(WakeLockManager.SYNC, 2 * 60 * 1000)) {
+ *       ...
+ *   }
+ *
+ * Held time, acquisitions and timeouts are accounted per reason, see {@link #getStats()}.
+ */
+public final class WakeLockManager {
+
+    private static final String TAG = "WakeLockManager";
+    private static final String TAG_PREFIX = "antithief:";
+
+    public static final String LOCATION = "location";
+    public static final String SYNC = "sync";
+    public static final String CAPTURE = "capture";
+    public static final String PACKAGING = "packaging";
+    public static final String EMAIL = "email";
+
+    private static PowerManager powerManager;
+    private static final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    private WakeLockManager() {
+    }
+
+    public static synchronized void init(Context context) {
+        if (powerManager == null) {
+            powerManager = (PowerManager) context.getApplicationContext().getSystemService(Context.POWER_SERVICE);
+        }
+    }
+
+    /**
+     * Takes a lease on the reason's lock, held until closed or until timeoutMs has
+     * passed. Without init() the lease is still accounted but keeps nothing awake.
+     */
+    public static synchronized Lease acquire(String reason, long timeoutMs) {
+        Entry entry = entries.get(reason);
+        if (entry == null) {
+            entry = new Entry();
+            if (powerManager != null) {
+                entry.lock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG_PREFIX + reason);
+                // Counted here, so a timed-out lock is never released twice
+                entry.lock.setReferenceCounted(false);
+            }
+            entries.put(reason, entry);
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (entry.holders == 0) {
+            entry.heldSince = now;
+            entry.deadline = 0;
+        }
+        entry.holders++;
+        entry.acquisitions++;
+        if (now + timeoutMs > entry.deadline) {
+            entry.deadline = now + timeoutMs;
+            if (entry.lock != null) {
+                // Re-arms the release timer of the already held lock
+                entry.lock.acquire(timeoutMs);
+            }
+        }
+        return new Lease(reason);
+    }
+
+    private static synchronized void release(String reason) {
+        Entry entry = entries.get(reason);
+        if (entry == null || entry.holders == 0) {
+            return;
+        }
+        entry.holders--;
+        if (entry.holders > 0) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        long held;
+        if (now > entry.deadline) {
+            entry.timeouts++;
+            held = entry.deadline - entry.heldSince;
+            Log.w(TAG, reason + " lock timed out after " + held + "ms, the work overran its timeout");
+        } else {
+            held = now - entry.heldSince;
+            if (entry.lock != null && entry.lock.isHeld()) {
+                entry.lock.release();
+            }
+        }
+        entry.heldMs += held;
+        entry.maxHeldMs = Math.max(entry.maxHeldMs, held);
+    }
+
+    /**
+     * Per reason accounting, in first use order. Time held by leases still open
+     * is included up to now.
+     */
+    public static synchronized Map<String, Stats> getStats() {
+        long now = SystemClock.elapsedRealtime();
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            long open = entry.holders > 0 ? Math.min(now, entry.deadline) - entry.heldSince : 0;
+            stats.put(e.getKey(), new Stats(entry.acquisitions, entry.timeouts, entry.holders,
+                    entry.heldMs + open, Math.max(entry.maxHeldMs, open)));
+        }
+        return stats;
+    }
+
+    /**
+     * One lease on a reason's lock; closing it more than once has no effect.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final String reason;
+        private boolean closed;
+
+        private Lease(String reason) {
+            this.reason = reason;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(reason);
+        }
+    }
+
+    public static class Stats {
+        public final long acquisitions;
+        public final long timeouts;
+        public final int holders;
+        public final long heldMs;
+        public final long maxHeldMs;
+
+        Stats(long acquisitions, long timeouts, int holders, long heldMs, long maxHeldMs) {
+            this.acquisitions = acquisitions;
+            this.timeouts = timeouts;
+            this.holders = holders;
+            this.heldMs = heldMs;
+            this.maxHeldMs = maxHeldMs;
+        }
+
+        @Override
+        public String toString() {
+            return "held=" + heldMs + "ms max=" + maxHeldMs + "ms"
+                    + " acquired=" + acquisitions + " timeouts=" + timeouts + " open=" + holders;
+        }
+    }
+
+    private static final class Entry {
+        PowerManager.WakeLock lock;
+        int holders;
+        long heldSince;
+        long deadline;
+        long acquisitions;
+        long timeouts;
+        long heldMs;
+        long maxHeldMs;
+    }
+}
@@ -4,24 +4,17 @@ import android.content.Context;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.youssef.anti_thief.config.Config;
 import com.youssef.anti_thief.DTO.LocationPayload;
-
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.model.enums.AesKeyStrength;
-import net.lingala.zip4j.model.enums.EncryptionMethod;
+import com.youssef.anti_thief.service.ApiClient;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -57,52 +50,42 @@ public class ZipCreator {
 
             Log.d(TAG, "Creating encrypted ZIP: " + zipFile.getAbsolutePath());
 
-            ZipFile zip = new ZipFile(zipFile, password.toCharArray());
-
-            ZipParameters zipParameters = new ZipParameters();
-            zipParameters.setEncryptFiles(true);
-            zipParameters.setEncryptionMethod(EncryptionMethod.AES);
-            zipParameters.setAesKeyStrength(AesKeyStrength.KEY_STRENGTH_256);
-
             SecurityPackage securityPackage = new SecurityPackage();
-
-            for (String photoPath : photoPaths) {
-                File photoFile = new File(photoPath);
-                if (photoFile.exists()) {
-                    Log.d(TAG, "Adding photo to ZIP: " + photoFile.getName());
-                    zip.addFile(photoFile, zipParameters);
-                    securityPackage.photoFiles.add(photoFile.getName());
-                } else {
-                    Log.w(TAG, "Photo file not found: " + photoPath);
-                }
-            }
-
             String encodedPolyline = fetchPolylineFromBackend();
             Log.d(TAG, "Fetched polyline: " + encodedPolyline);
 
-            File jsonFile = new File(context.getExternalFilesDir(null), "security_data.json");
-            try (FileWriter writer = new FileWriter(jsonFile)) {
-                Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                writer.write("{\n");
-                writer.write("  \"timestamp\": \"" + securityPackage.timestamp + "\",\n");
-                writer.write("  \"deviceInfo\": \"" + securityPackage.deviceInfo + "\",\n");
-                writer.write("  \"photoFiles\": " + gson.toJson(securityPackage.photoFiles) + ",\n");
-                writer.write("  \"encodedPolyline\": \"" + encodedPolyline + "\"\n");
-                writer.write("}");
-            }
-
-            zip.addFile(jsonFile, zipParameters);
+            // One pass straight into the archive, no temp files for the JSON or the map
+            try (EvidenceArchive archive = new EvidenceArchive(zipFile, password)) {
+                for (String photoPath : photoPaths) {
+                    File photoFile = new File(photoPath);
+                    if (photoFile.exists()) {
+                        Log.d(TAG, "Adding photo to ZIP: " + photoFile.getName());
+                        archive.addPhoto(photoFile);
+                        securityPackage.photoFiles.add(SealedPhotos.plainName(photoFile));
+                    } else {
+                        Log.w(TAG, "Photo file not found: " + photoPath);
+                    }
+                }
 
-            File mapFile = new File(context.getExternalFilesDir(null), "location_map.html");
-            try (FileWriter writer = new FileWriter(mapFile)) {
-                writer.write(generateMapHtmlWithPolyline(encodedPolyline));
+                archive.addJson("security_data.json", json -> {
+                    json.beginObject();
+                    json.name("timestamp").value(securityPackage.timestamp);
+                    json.name("deviceInfo").value(securityPackage.deviceInfo);
+                    json.name("photoFiles").beginArray();
+                    for (String photoFile : securityPackage.photoFiles) {
+                        json.value(photoFile);
+                    }
+                    json.endArray();
+                    json.name("encodedPolyline").value(encodedPolyline);
+                    json.endObject();
+                });
+
+                archive.addText("location_map.html", generateMapHtmlWithPolyline(encodedPolyline));
+            } catch (Exception e) {
+                zipFile.delete();
+                throw e;
             }
 
-            zip.addFile(mapFile, zipParameters);
-
-            jsonFile.delete();
-            mapFile.delete();
-
             Log.d(TAG, "ZIP created successfully: " + zipFile.getAbsolutePath());
             Log.d(TAG, "ZIP contains: " + securityPackage.photoFiles.size() + " photos, polyline data");
 
@@ -125,27 +108,23 @@ public class ZipCreator {
             String url = serverUrl + "api/locations/24h";
             Log.d(TAG, "Fetching polyline from: " + url);
 
-            OkHttpClient client = new OkHttpClient.Builder()
-                    .connectTimeout(10, java.util.concurrent.TimeUnit.SECONDS)
-                    .readTimeout(10, java.util.concurrent.TimeUnit.SECONDS)
-                    .build();
-
             Request request = new Request.Builder()
                     .url(url)
                     .get()
                     .build();
 
-            Response response = client.newCall(request).execute();
-
-            if (response.isSuccessful() && response.body() != null) {
-                String polyline = response.body().string().trim();
-                if (polyline.startsWith("\"") && polyline.endsWith("\"")) {
-                    polyline = polyline.substring(1, polyline.length() - 1);
+            try (Response response = ApiClient.getHttpClient().newCall(request).execute()) {
+                if (response.isSuccessful() && response.body() != null) {
+                    String polyline = response.body().string().trim();
+                    if (polyline.startsWith("\"") && polyline.endsWith("\"")) {
+                        // A JSON string: unescape it, polylines can contain backslashes
+                        polyline = new Gson().fromJson(polyline, String.class);
+                    }
+                    Log.d(TAG, "Received polyline: " + polyline);
+                    return polyline;
+                } else {
+                    Log.e(TAG, "Failed to fetch polyline: " + response.code());
                 }
-                Log.d(TAG, "Received polyline: " + polyline);
-                return polyline;
-            } else {
-                Log.e(TAG, "Failed to fetch polyline: " + response.code());
             }
 
         } catch (Exception e) {
@@ -208,7 +187,7 @@ public class ZipCreator {
                 "        <div class=\"legend-item\"><div class=\"legend-start\"></div> Start Point (24h ago)</div>\n" +
                 "    </div>\n" +
                 "    <script>\n" +
-                "        var encodedPolyline = '" + encodedPolyline + "';\n" +
+                "        var encodedPolyline = '" + encodedPolyline.replace("\\", "\\\\") + "';\n" +
                 "        function decodePolyline(encoded) {\n" +
                 "            var points = [];\n" +
                 "            var index = 0, len = encoded.length;\n" +
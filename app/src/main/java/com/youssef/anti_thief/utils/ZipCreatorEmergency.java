@@ -5,23 +5,17 @@ import android.location.Location;
 import android.os.Build;
 import android.util.Log;
 
-import com.google.gson.GsonBuilder;
+import com.google.gson.Gson;
 import com.youssef.anti_thief.config.Config;
-
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.model.enums.AesKeyStrength;
-import net.lingala.zip4j.model.enums.EncryptionMethod;
+import com.youssef.anti_thief.service.ApiClient;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -33,6 +27,10 @@ import okhttp3.Response;
 public class ZipCreatorEmergency {
 
     private static final String TAG = "ZipCreatorEmergency";
+    private static final long HISTORY_WINDOW_MS = 24 * 60 * 60 * 1000L;
+    // The map only needs the shape of the trail; 10 m is below what a browser shows at street zoom
+    private static final double POLYLINE_TOLERANCE_M = 10;
+    private static final long POLYLINE_MAX_GAP_MS = 10 * 60 * 1000L;
 
     public static String createEmergencyZip(Context context, List<String> photoPaths, String alertType, Location currentLocation) {
         try {
@@ -48,67 +46,58 @@ public class ZipCreatorEmergency {
 
             Log.d(TAG, "Creating emergency ZIP: " + zipFile.getAbsolutePath());
 
-            ZipFile zip = new ZipFile(zipFile, password.toCharArray());
-
-            ZipParameters zipParameters = new ZipParameters();
-            zipParameters.setEncryptFiles(true);
-            zipParameters.setEncryptionMethod(EncryptionMethod.AES);
-            zipParameters.setAesKeyStrength(AesKeyStrength.KEY_STRENGTH_256);
-
-            List<String> addedPhotos = new ArrayList<>();
-
-            // Add photos
-            for (String photoPath : photoPaths) {
-                File photoFile = new File(photoPath);
-                if (photoFile.exists()) {
-                    Log.d(TAG, "Adding photo: " + photoFile.getName());
-                    zip.addFile(photoFile, zipParameters);
-                    addedPhotos.add(photoFile.getName());
-                }
-            }
-
             // Try to get polyline from backend, fallback to cache if fails
             String encodedPolyline = fetchPolylineWithFallback(context);
             Log.d(TAG, "Location data source: " + (encodedPolyline.isEmpty() ? "NONE" : "OK"));
 
-            // Create JSON data file
-            File jsonFile = new File(context.getExternalFilesDir(null), "emergency_data.json");
-            try (FileWriter writer = new FileWriter(jsonFile)) {
-                String readableTimestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date());
-                
-                writer.write("{\n");
-                writer.write("  \"alertType\": \"" + alertType + "\",\n");
-                writer.write("  \"timestamp\": \"" + readableTimestamp + "\",\n");
-                writer.write("  \"deviceInfo\": \"" + Build.MANUFACTURER + " " + Build.MODEL + "\",\n");
-                
-                if (currentLocation != null) {
-                    writer.write("  \"currentLocation\": {\n");
-                    writer.write("    \"latitude\": " + currentLocation.getLatitude() + ",\n");
-                    writer.write("    \"longitude\": " + currentLocation.getLongitude() + ",\n");
-                    writer.write("    \"accuracy\": " + currentLocation.getAccuracy() + ",\n");
-                    writer.write("    \"googleMapsUrl\": \"https://maps.google.com/?q=" + 
-                            currentLocation.getLatitude() + "," + currentLocation.getLongitude() + "\"\n");
-                    writer.write("  },\n");
-                } else {
-                    writer.write("  \"currentLocation\": null,\n");
+            List<String> addedPhotos = new ArrayList<>();
+
+            // Photos, JSON data and HTML map go straight into the archive in one pass
+            try (EvidenceArchive archive = new EvidenceArchive(zipFile, password)) {
+                for (String photoPath : photoPaths) {
+                    File photoFile = new File(photoPath);
+                    if (photoFile.exists()) {
+                        Log.d(TAG, "Adding photo: " + photoFile.getName());
+                        archive.addPhoto(photoFile);
+                        addedPhotos.add(SealedPhotos.plainName(photoFile));
+                    }
                 }
-                
-                writer.write("  \"photoFiles\": " + new GsonBuilder().create().toJson(addedPhotos) + ",\n");
-                writer.write("  \"encodedPolyline\": \"" + encodedPolyline + "\"\n");
-                writer.write("}");
-            }
-            zip.addFile(jsonFile, zipParameters);
 
-            // Create HTML map
-            File mapFile = new File(context.getExternalFilesDir(null), "location_map.html");
-            try (FileWriter writer = new FileWriter(mapFile)) {
-                writer.write(generateEmergencyMapHtml(alertType, encodedPolyline, currentLocation));
+                archive.addJson("emergency_data.json", json -> {
+                    String readableTimestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date());
+
+                    json.beginObject();
+                    json.name("alertType").value(alertType);
+                    json.name("timestamp").value(readableTimestamp);
+                    json.name("deviceInfo").value(Build.MANUFACTURER + " " + Build.MODEL);
+
+                    json.name("currentLocation");
+                    if (currentLocation != null) {
+                        json.beginObject();
+                        json.name("latitude").value(currentLocation.getLatitude());
+                        json.name("longitude").value(currentLocation.getLongitude());
+                        json.name("accuracy").value(Float.valueOf(currentLocation.getAccuracy()));
+                        json.name("googleMapsUrl").value("https://maps.google.com/?q="
+                                + currentLocation.getLatitude() + "," + currentLocation.getLongitude());
+                        json.endObject();
+                    } else {
+                        json.nullValue();
+                    }
+
+                    json.name("photoFiles").beginArray();
+                    for (String photo : addedPhotos) {
+                        json.value(photo);
+                    }
+                    json.endArray();
+                    json.name("encodedPolyline").value(encodedPolyline);
+                    json.endObject();
+                });
+
+                archive.addText("location_map.html", generateEmergencyMapHtml(alertType, encodedPolyline, currentLocation));
+            } catch (Exception e) {
+                zipFile.delete();
+                throw e;
             }
-            zip.addFile(mapFile, zipParameters);
-
-            // Cleanup temp files
-            jsonFile.delete();
-            mapFile.delete();
 
             Log.d(TAG, "Emergency ZIP created: " + addedPhotos.size() + " photos");
             return zipFile.getAbsolutePath();
@@ -140,8 +129,6 @@ public class ZipCreatorEmergency {
     private static String fetchPolylineFromBackend() {
         try {
             String serverUrl = Config.getServerUrl();
-            String apiKey = Config.getApiKey();
-            
             if (serverUrl == null || serverUrl.isEmpty()) {
                 Log.e(TAG, "Server URL not configured");
                 return null;
@@ -150,31 +137,21 @@ public class ZipCreatorEmergency {
             String url = serverUrl + "api/locations/24h";
             Log.d(TAG, "Fetching polyline from: " + url);
 
-            OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder()
-                    .connectTimeout(10, java.util.concurrent.TimeUnit.SECONDS)
-                    .readTimeout(10, java.util.concurrent.TimeUnit.SECONDS);
-
-            OkHttpClient client = clientBuilder.build();
-
-            Request.Builder requestBuilder = new Request.Builder().url(url).get();
-            
-            if (apiKey != null && !apiKey.isEmpty()) {
-                requestBuilder.header("X-API-Key", apiKey);
-            }
-
-            Response response = client.newCall(requestBuilder.build()).execute();
-
-            if (response.isSuccessful() && response.body() != null) {
-                String polyline = response.body().string().trim();
-                // Remove quotes if present
-                if (polyline.startsWith("\"") && polyline.endsWith("\"")) {
-                    polyline = polyline.substring(1, polyline.length() - 1);
+            Request request = new Request.Builder().url(url).get().build();
+
+            try (Response response = ApiClient.getHttpClient().newCall(request).execute()) {
+                if (response.isSuccessful() && response.body() != null) {
+                    String polyline = response.body().string().trim();
+                    if (polyline.startsWith("\"") && polyline.endsWith("\"")) {
+                        // A JSON string: unescape it, polylines can contain backslashes
+                        polyline = new Gson().fromJson(polyline, String.class);
+                    }
+                    Log.d(TAG, "Backend returned polyline (length=" + polyline.length() + ")");
+                    return polyline;
+                } else {
+                    Log.e(TAG, "Backend API failed with code: " + response.code());
+                    return null;
                 }
-                Log.d(TAG, "Backend returned polyline (length=" + polyline.length() + ")");
-                return polyline;
-            } else {
-                Log.e(TAG, "Backend API failed with code: " + response.code());
-                return null;
             }
 
         } catch (Exception e) {
@@ -184,20 +161,23 @@ public class ZipCreatorEmergency {
     }
 
     /**
-     * Generates a polyline from cached locations when backend is unavailable
+     * Generates a polyline from the last 24h of cached locations when backend is unavailable
      */
     private static String generatePolylineFromCache(Context context) {
         try {
             LocationCache cache = new LocationCache(context);
-            List<LocationCache.CachedLocation> locations = cache.getAllLocations();
+            LocationColumns locations = new LocationColumns();
+            cache.readBetween(System.currentTimeMillis() - HISTORY_WINDOW_MS, Long.MAX_VALUE, locations);
 
             if (locations.isEmpty()) {
                 Log.d(TAG, "No cached locations available");
                 return "";
             }
 
-            Log.d(TAG, "Generating polyline from " + locations.size() + " cached locations");
-            return encodePolyline(locations);
+            LocationColumns simplified = new LocationColumns();
+            new TrajectorySimplifier(POLYLINE_TOLERANCE_M, POLYLINE_MAX_GAP_MS).simplify(locations, simplified);
+            Log.d(TAG, "Generating polyline from " + simplified.size() + " of " + locations.size() + " cached locations");
+            return encodePolyline(simplified);
 
         } catch (Exception e) {
             Log.e(TAG, "Error generating polyline from cache", e);
@@ -206,19 +186,20 @@ public class ZipCreatorEmergency {
     }
 
     /**
-     * Encodes a list of locations into a Google polyline format
+     * Encodes locations into a Google polyline format
      */
-    private static String encodePolyline(List<LocationCache.CachedLocation> locations) {
-        StringBuilder encoded = new StringBuilder();
+    private static String encodePolyline(LocationColumns locations) {
+        StringBuilder encoded = new StringBuilder(locations.size() * 8);
         int prevLat = 0;
         int prevLng = 0;
 
-        for (LocationCache.CachedLocation loc : locations) {
-            int lat = (int) Math.round(loc.latitude * 1e5);
-            int lng = (int) Math.round(loc.longitude * 1e5);
+        for (int i = 0; i < locations.size(); i++) {
+            // Polylines carry 5 decimal places, the cache keeps 7
+            int lat = (int) Math.round(locations.getLatitudeE7(i) / 100.0);
+            int lng = (int) Math.round(locations.getLongitudeE7(i) / 100.0);
 
-            encoded.append(encodeValue(lat - prevLat));
-            encoded.append(encodeValue(lng - prevLng));
+            encodeValue(encoded, lat - prevLat);
+            encodeValue(encoded, lng - prevLng);
 
             prevLat = lat;
             prevLng = lng;
@@ -227,17 +208,14 @@ public class ZipCreatorEmergency {
         return encoded.toString();
     }
 
-    private static String encodeValue(int value) {
-        StringBuilder encoded = new StringBuilder();
+    private static void encodeValue(StringBuilder encoded, int value) {
         int v = value < 0 ? ~(value << 1) : (value << 1);
-        
+
         while (v >= 0x20) {
             encoded.append((char) ((0x20 | (v & 0x1f)) + 63));
             v >>= 5;
         }
         encoded.append((char) (v + 63));
-        
-        return encoded.toString();
     }
 
     private static String generateEmergencyMapHtml(String alertType, String encodedPolyline, Location currentLocation) {
@@ -282,7 +260,7 @@ public class ZipCreatorEmergency {
                 "        <div class=\"legend-item\"><div class=\"legend-path\"></div> Movement History</div>\n" +
                 "    </div>\n" +
                 "    <script>\n" +
-                "        var encodedPolyline = '" + encodedPolyline + "';\n" +
+                "        var encodedPolyline = '" + encodedPolyline.replace("\\", "\\\\") + "';\n" +
                 "        var currentLat = " + currentLat + ";\n" +
                 "        var currentLng = " + currentLng + ";\n" +
                 "        \n" +
@@ -0,0 +1,72 @@
+package android.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Local unit tests run against the mockable android.jar, whose Base64 returns
+ * null for everything. This copy, first on the test classpath, implements the
+ * flags the app uses on top of java.util.Base64 so the encrypted upload path
+ * can be driven end to end.
+ */
+public class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+    public static final int NO_CLOSE = 16;
+
+    private static final int LINE_LENGTH = 76;
+
+    private Base64() {
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        return encodeToString(input, flags).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return encodeToString(input, 0, input.length, flags);
+    }
+
+    public static String encodeToString(byte[] input, int offset, int len, int flags) {
+        byte[] slice = new byte[len];
+        System.arraycopy(input, offset, slice, 0, len);
+        String encoded = encoder(flags).encodeToString(slice);
+        if ((flags & NO_WRAP) == 0 && !encoded.isEmpty()) {
+            // Android ends every wrapped encoding with a line break
+            encoded += (flags & CRLF) != 0 ? "\r\n" : "\n";
+        }
+        return encoded;
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return decode(str.getBytes(StandardCharsets.US_ASCII), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        return decode(input, 0, input.length, flags);
+    }
+
+    public static byte[] decode(byte[] input, int offset, int len, int flags) {
+        String encoded = new String(input, offset, len, StandardCharsets.US_ASCII).replaceAll("\\s", "");
+        if ((flags & URL_SAFE) != 0) {
+            encoded = encoded.replace('-', '+').replace('_', '/');
+        }
+        return java.util.Base64.getDecoder().decode(encoded);
+    }
+
+    static java.util.Base64.Encoder encoder(int flags) {
+        java.util.Base64.Encoder encoder;
+        if ((flags & URL_SAFE) != 0) {
+            encoder = java.util.Base64.getUrlEncoder();
+        } else if ((flags & NO_WRAP) != 0) {
+            encoder = java.util.Base64.getEncoder();
+        } else {
+            byte[] separator = (flags & CRLF) != 0 ? new byte[]{'\r', '\n'} : new byte[]{'\n'};
+            encoder = java.util.Base64.getMimeEncoder(LINE_LENGTH, separator);
+        }
+        return (flags & NO_PADDING) != 0 ? encoder.withoutPadding() : encoder;
+    }
+}
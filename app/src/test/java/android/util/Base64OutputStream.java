@@ -0,0 +1,46 @@
+package android.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Working stand-in for the mockable android.jar stub, see {@link Base64}.
+ * Only encoding is supported, which is all the app does with it.
+ */
+public class Base64OutputStream extends FilterOutputStream {
+
+    public Base64OutputStream(OutputStream out, int flags) {
+        super(Base64.encoder(flags).wrap(
+                (flags & Base64.NO_CLOSE) != 0 ? new NonClosing(out) : out));
+    }
+
+    public Base64OutputStream(OutputStream out, int flags, boolean encode) {
+        this(out, flags);
+        if (!encode) {
+            throw new UnsupportedOperationException("Base64 decoding stream is not implemented for tests");
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    private static final class NonClosing extends FilterOutputStream {
+
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.youssef.anti_thief;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import com.youssef.anti_thief.config.Config;
+import com.youssef.anti_thief.config.ConfigManager;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Context for local unit tests: in-memory SharedPreferences and real
+ * directories under root, which is all the cache, config and crypto
+ * classes ask a Context for.
+ */
+public class TestContext extends ContextWrapper {
+
+    private final File root;
+    private final Map<String, Preferences> preferences = new HashMap<>();
+
+    public TestContext(File root) {
+        super(null);
+        this.root = root;
+    }
+
+    /**
+     * Stores the settings setup would save and points Config at them.
+     */
+    public void configure(String serverUrl, String aesKey, String apiKey) {
+        new ConfigManager(this).saveConfig(serverUrl, "", "", "", "zip-password", aesKey, apiKey);
+        Config.init(this);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        return preferences.computeIfAbsent(name, key -> new Preferences());
+    }
+
+    @Override
+    public File getFilesDir() {
+        return directory("files");
+    }
+
+    @Override
+    public File getCacheDir() {
+        return directory("cache");
+    }
+
+    @Override
+    public File getExternalFilesDir(String type) {
+        return directory(type == null ? "external" : "external/" + type);
+    }
+
+    private File directory(String name) {
+        File dir = new File(root, name);
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static final class Preferences implements SharedPreferences {
+
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return (String) get(key, defValue);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return (Set<String>) get(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return (Integer) get(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return (Long) get(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return (Float) get(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return (Boolean) get(key, defValue);
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new PreferencesEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        private synchronized Object get(String key, Object defValue) {
+            return values.containsKey(key) ? values.get(key) : defValue;
+        }
+
+        private final class PreferencesEditor implements Editor {
+
+            private final Map<String, Object> changes = new HashMap<>();
+            private final Set<String> removals = new HashSet<>();
+            private boolean clear;
+
+            @Override
+            public Editor putString(String key, String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return put(key, values == null ? null : new HashSet<>(values));
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                removals.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (Preferences.this) {
+                    if (clear) {
+                        values.clear();
+                    }
+                    for (String key : removals) {
+                        values.remove(key);
+                    }
+                    for (Map.Entry<String, Object> change : changes.entrySet()) {
+                        if (change.getValue() == null) {
+                            values.remove(change.getKey());
+                        } else {
+                            values.put(change.getKey(), change.getValue());
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+
+            private Editor put(String key, Object value) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+    }
+}
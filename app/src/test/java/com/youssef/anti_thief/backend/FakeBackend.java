@@ -0,0 +1,506 @@
+package com.youssef.anti_thief.backend;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.youssef.anti_thief.DTO.LocationPayload;
+import com.youssef.anti_thief.utils.GzipCompression;
+import com.youssef.anti_thief.utils.LocationBatchCodec;
+import com.youssef.anti_thief.utils.LocationColumns;
+import com.youssef.anti_thief.utils.SealedEnvelope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * In-memory stand-in for the tracking backend, on a MockWebServer, so
+ * ApiService, the encrypted upload path and the 24h polyline fetch can be
+ * exercised and timed without a real server. Implements:
+ *
+ *   POST api/location           JSON LocationPayload array, optionally gzip
+ *   POST api/location/batch     LocationBatchCodec body
+ *   POST api/secure/location    EncryptedPayload envelope, decrypted with the
+ *                               same SHA-256 key derivation as AESEncryption,
+ *                               or an application/octet-stream SealedEnvelope;
+ *                               X-Segment-Id repeats are dropped unopened
+ *   GET  api/locations/24h      encoded polyline of the last 24h, as a JSON string
+ *
+ * Fixes are stored per device and keyed by timestamp, so a page sent again
+ * after a failure is absorbed as duplicates, as BacklogUploader expects.
+ * Capability headers are advertised like the real server does.
+ *
+ * Faults can be injected for offline throughput runs: fixed latency, a
+ * bandwidth cap, a request rate limit (429), random or scripted error codes
+ * and dropped connections.
+ *
+ *   FakeBackend backend = new FakeBackend("aes-key", "api-key");
+ *   backend.start();
+ *   // configure the app with backend.url() as server URL
+ *   backend.setLatencyMs(300);
+ *   backend.failNext(2, 503);
+ */
+public class FakeBackend {
+
+    private static final String LOCATION_PATH = "/api/location";
+    private static final String BATCH_PATH = "/api/location/batch";
+    private static final String SECURE_PATH = "/api/secure/location";
+    private static final String HISTORY_PATH = "/api/locations/24h";
+    private static final String API_KEY_HEADER = "X-API-Key";
+    private static final String ACCEPT_REQUEST_ENCODING_HEADER = "X-Accept-Request-Encoding";
+    private static final String ACCEPT_BATCH_FORMAT_HEADER = "X-Accept-Batch-Format";
+    private static final String SEGMENT_ID_HEADER = "X-Segment-Id";
+    private static final long HISTORY_WINDOW_MS = 24 * 60 * 60 * 1000L;
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+    /** Status code for failNext() that drops the connection instead of answering. */
+    public static final int DISCONNECT = 0;
+
+    private final MockWebServer server = new MockWebServer();
+    private final Gson gson = new Gson();
+    private final Random random = new Random();
+    private final String aesKey;
+    private final String apiKey;
+
+    private final Map<String, TreeMap<Long, LocationPayload>> locations = new HashMap<>();
+    private final Map<String, Integer> requestCounts = new TreeMap<>();
+    private final Set<String> segmentIds = new HashSet<>();
+    private int duplicateSegments;
+    private long bytesReceived;
+    private int injectedFailures;
+
+    private boolean gzipAccepted = true;
+    private boolean binaryBatchAccepted = true;
+    private boolean sealedEnvelopeAccepted = true;
+    private long latencyMs;
+    private long bytesPerSecond;
+    private int maxRequestsPerSecond;
+    private long rateWindowStart;
+    private int rateWindowCount;
+    private double failureRate;
+    private int failureCode = 503;
+    private int scriptedFailures;
+    private int scriptedFailureCode;
+
+    /**
+     * @param aesKey the key configured in the app, or null if the secure endpoint is not used
+     * @param apiKey the expected X-API-Key, or null to accept any request
+     */
+    public FakeBackend(String aesKey, String apiKey) {
+        this.aesKey = aesKey;
+        this.apiKey = apiKey;
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return handle(request);
+            }
+
+            @Override
+            public MockResponse peek() {
+                // Used by MockWebServer while reading the request, so the cap throttles uploads too
+                return throttle(new MockResponse());
+            }
+        });
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * Base URL to configure as the app's server URL, with a trailing slash.
+     */
+    public String url() {
+        return server.url("/").toString();
+    }
+
+    // Capabilities
+
+    public synchronized void setGzipAccepted(boolean accepted) {
+        gzipAccepted = accepted;
+    }
+
+    public synchronized void setBinaryBatchAccepted(boolean accepted) {
+        binaryBatchAccepted = accepted;
+    }
+
+    public synchronized void setSealedEnvelopeAccepted(boolean accepted) {
+        sealedEnvelopeAccepted = accepted;
+    }
+
+    // Fault injection
+
+    /**
+     * Delays every response's headers by latencyMs.
+     */
+    public synchronized void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Caps request and response bodies at bytesPerSecond; 0 removes the cap.
+     */
+    public synchronized void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Answers 429 with Retry-After once more than maxRequestsPerSecond arrive
+     * within a second; 0 removes the limit.
+     */
+    public synchronized void setRateLimit(int maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    /**
+     * Fails each request with the given probability and status code.
+     */
+    public synchronized void setFailureRate(double failureRate, int code) {
+        this.failureRate = failureRate;
+        this.failureCode = code;
+    }
+
+    /**
+     * Fails the next count requests with code, or drops their connection for {@link #DISCONNECT}.
+     */
+    public synchronized void failNext(int count, int code) {
+        scriptedFailures = count;
+        scriptedFailureCode = code;
+    }
+
+    // Inspection
+
+    /**
+     * Stored fixes of one device, oldest first.
+     */
+    public synchronized List<LocationPayload> getLocations(String deviceId) {
+        TreeMap<Long, LocationPayload> stored = locations.get(deviceId);
+        return stored == null ? new ArrayList<>() : new ArrayList<>(stored.values());
+    }
+
+    public synchronized int getStoredCount() {
+        int count = 0;
+        for (TreeMap<Long, LocationPayload> stored : locations.values()) {
+            count += stored.size();
+        }
+        return count;
+    }
+
+    /**
+     * Requests seen per "METHOD path", including rejected ones.
+     */
+    public synchronized Map<String, Integer> getRequestCounts() {
+        return new TreeMap<>(requestCounts);
+    }
+
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public synchronized int getInjectedFailures() {
+        return injectedFailures;
+    }
+
+    /**
+     * Sealed segments that arrived again after being stored, and were dropped by id.
+     */
+    public synchronized int getDuplicateSegments() {
+        return duplicateSegments;
+    }
+
+    public synchronized void reset() {
+        locations.clear();
+        requestCounts.clear();
+        bytesReceived = 0;
+        injectedFailures = 0;
+        segmentIds.clear();
+        duplicateSegments = 0;
+    }
+
+    private synchronized MockResponse handle(RecordedRequest request) {
+        String path = request.getPath();
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        requestCounts.merge(request.getMethod() + " " + path, 1, Integer::sum);
+        bytesReceived += request.getBodySize();
+
+        MockResponse fault = injectFault();
+        if (fault != null) {
+            injectedFailures++;
+            return throttle(fault);
+        }
+        if (apiKey != null && !apiKey.equals(request.getHeader(API_KEY_HEADER))) {
+            return respond(401, "{\"error\":\"invalid api key\"}");
+        }
+
+        try {
+            byte[] body = request.getBody().readByteArray();
+            if ("POST".equals(request.getMethod()) && LOCATION_PATH.equals(path)) {
+                if (GzipCompression.ENCODING.equals(request.getHeader("Content-Encoding"))) {
+                    if (!gzipAccepted) {
+                        return respond(415, "{\"error\":\"gzip not accepted\"}");
+                    }
+                    body = gunzip(body);
+                }
+                return stored(storeJson(new String(body, StandardCharsets.UTF_8)));
+            }
+            if ("POST".equals(request.getMethod()) && BATCH_PATH.equals(path)) {
+                if (!binaryBatchAccepted) {
+                    return respond(415, "{\"error\":\"binary batches not accepted\"}");
+                }
+                return stored(storeBatch(body));
+            }
+            if ("POST".equals(request.getMethod()) && SECURE_PATH.equals(path)) {
+                String contentType = request.getHeader("Content-Type");
+                if (contentType != null && contentType.startsWith(SealedEnvelope.CONTENT_TYPE)) {
+                    if (!sealedEnvelopeAccepted) {
+                        return respond(415, "{\"error\":\"sealed envelopes not accepted\"}");
+                    }
+                    String segmentId = request.getHeader(SEGMENT_ID_HEADER);
+                    if (segmentId != null && segmentIds.contains(segmentId)) {
+                        duplicateSegments++;
+                        return stored(0);
+                    }
+                    int added = storeSealed(body);
+                    if (segmentId != null) {
+                        segmentIds.add(segmentId);
+                    }
+                    return stored(added);
+                }
+                return stored(storeEncrypted(new String(body, StandardCharsets.UTF_8)));
+            }
+            if ("GET".equals(request.getMethod()) && HISTORY_PATH.equals(path)) {
+                String deviceId = request.getRequestUrl().queryParameter("deviceId");
+                return respond(200, gson.toJson(encodePolyline(lastDay(deviceId, System.currentTimeMillis()))));
+            }
+            return respond(404, "{\"error\":\"not found\"}");
+        } catch (IOException | GeneralSecurityException | JsonParseException | IllegalArgumentException e) {
+            return respond(400, gson.toJson(e.toString()));
+        }
+    }
+
+    private MockResponse injectFault() {
+        if (maxRequestsPerSecond > 0) {
+            long now = System.currentTimeMillis();
+            if (now - rateWindowStart >= 1000) {
+                rateWindowStart = now;
+                rateWindowCount = 0;
+            }
+            if (++rateWindowCount > maxRequestsPerSecond) {
+                return respond(429, "{\"error\":\"rate limited\"}").setHeader("Retry-After", "1");
+            }
+        }
+        int code = 0;
+        if (scriptedFailures > 0) {
+            scriptedFailures--;
+            code = scriptedFailureCode;
+            if (code == DISCONNECT) {
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+            }
+        } else if (failureRate > 0 && random.nextDouble() < failureRate) {
+            code = failureCode;
+        }
+        return code == 0 ? null : respond(code, "{\"error\":\"injected\"}");
+    }
+
+    private int storeJson(String json) {
+        LocationPayload[] payloads = gson.fromJson(json, LocationPayload[].class);
+        if (payloads == null) {
+            throw new JsonParseException("Empty location batch");
+        }
+        return store(Arrays.asList(payloads));
+    }
+
+    private int storeBatch(byte[] body) throws IOException {
+        LocationColumns points = LocationBatchCodec.decode(body);
+        List<LocationPayload> payloads = new ArrayList<>(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            LocationPayload payload = new LocationPayload(points.getLatitude(i), points.getLongitude(i),
+                    points.getDeviceId(), points.getTimestamp(i));
+            if (points.isDwell(i)) {
+                payload.dwellCount = points.getCount(i);
+                payload.dwellUntil = points.getEndTimestamp(i);
+            }
+            payloads.add(payload);
+        }
+        return store(payloads);
+    }
+
+    /**
+     * Reverses the client's pipeline: Base64(IV + AES-GCM(optional gzip(JSON array or binary batch))).
+     */
+    private int storeEncrypted(String json) throws IOException, GeneralSecurityException {
+        if (aesKey == null) {
+            throw new GeneralSecurityException("No AES key configured on the fake backend");
+        }
+        JsonObject envelope = gson.fromJson(json, JsonObject.class);
+        if (envelope == null || !envelope.has("data")) {
+            throw new JsonParseException("Envelope without data");
+        }
+        byte[] combined = Base64.getDecoder().decode(envelope.get("data").getAsString());
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, deriveKey(),
+                new GCMParameterSpec(GCM_TAG_LENGTH, combined, 0, GCM_IV_LENGTH));
+        byte[] plaintext = cipher.doFinal(combined, GCM_IV_LENGTH, combined.length - GCM_IV_LENGTH);
+
+        if (envelope.has("encoding") && GzipCompression.ENCODING.equals(envelope.get("encoding").getAsString())) {
+            plaintext = gunzip(plaintext);
+        }
+        if (envelope.has("format") && LocationBatchCodec.FORMAT.equals(envelope.get("format").getAsString())) {
+            return storeBatch(plaintext);
+        }
+        return storeJson(new String(plaintext, StandardCharsets.UTF_8));
+    }
+
+    private int storeSealed(byte[] body) throws IOException, GeneralSecurityException {
+        if (aesKey == null) {
+            throw new GeneralSecurityException("No AES key configured on the fake backend");
+        }
+        SealedEnvelope.Contents contents = SealedEnvelope.open(deriveKey(), body);
+        byte[] plaintext = contents.plaintext;
+        if ((contents.flags & SealedEnvelope.FLAG_GZIP) != 0) {
+            plaintext = gunzip(plaintext);
+        }
+        if ((contents.flags & SealedEnvelope.FLAG_BINARY_BATCH) != 0) {
+            return storeBatch(plaintext);
+        }
+        return storeJson(new String(plaintext, StandardCharsets.UTF_8));
+    }
+
+    private SecretKeySpec deriveKey() throws GeneralSecurityException {
+        byte[] keyBytes = MessageDigest.getInstance("SHA-256").digest(aesKey.getBytes(StandardCharsets.UTF_8));
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+
+    private int store(List<LocationPayload> payloads) {
+        int added = 0;
+        for (LocationPayload payload : payloads) {
+            String deviceId = payload.deviceId == null ? "" : payload.deviceId;
+            TreeMap<Long, LocationPayload> stored = locations.get(deviceId);
+            if (stored == null) {
+                stored = new TreeMap<>();
+                locations.put(deviceId, stored);
+            }
+            if (stored.put(payload.timestamp, payload) == null) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private List<LocationPayload> lastDay(String deviceId, long now) {
+        TreeMap<Long, LocationPayload> merged = new TreeMap<>();
+        for (Map.Entry<String, TreeMap<Long, LocationPayload>> entry : locations.entrySet()) {
+            if (deviceId == null || deviceId.equals(entry.getKey())) {
+                merged.putAll(entry.getValue().subMap(now - HISTORY_WINDOW_MS, true, now, true));
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Google encoded polyline, 5 decimal places, as ZipCreator's map page decodes it.
+     */
+    static String encodePolyline(List<LocationPayload> points) {
+        StringBuilder encoded = new StringBuilder(points.size() * 8);
+        long prevLat = 0;
+        long prevLng = 0;
+        for (LocationPayload point : points) {
+            long lat = Math.round(point.latitude * 1e5);
+            long lng = Math.round(point.longitude * 1e5);
+            encodeValue(encoded, lat - prevLat);
+            encodeValue(encoded, lng - prevLng);
+            prevLat = lat;
+            prevLng = lng;
+        }
+        return encoded.toString();
+    }
+
+    private static void encodeValue(StringBuilder encoded, long value) {
+        long v = value < 0 ? ~(value << 1) : (value << 1);
+        while (v >= 0x20) {
+            encoded.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        encoded.append((char) (v + 63));
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private MockResponse stored(int added) {
+        return respond(200, "{\"stored\":" + added + "}");
+    }
+
+    private MockResponse respond(int code, String body) {
+        MockResponse response = new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json")
+                .setBody(body);
+        // Always advertised, so switching a capability off also downgrades the client
+        response.setHeader(ACCEPT_REQUEST_ENCODING_HEADER, gzipAccepted ? GzipCompression.ENCODING : "identity");
+        List<String> formats = new ArrayList<>();
+        formats.add("json");
+        if (binaryBatchAccepted) {
+            formats.add(LocationBatchCodec.FORMAT);
+        }
+        if (sealedEnvelopeAccepted) {
+            formats.add(SealedEnvelope.FORMAT);
+        }
+        response.setHeader(ACCEPT_BATCH_FORMAT_HEADER, String.join(", ", formats));
+        if (latencyMs > 0) {
+            response.setHeadersDelay(latencyMs, TimeUnit.MILLISECONDS);
+        }
+        return throttle(response);
+    }
+
+    private synchronized MockResponse throttle(MockResponse response) {
+        if (bytesPerSecond > 0) {
+            // 10 slices a second keeps the transfer smooth
+            response.throttleBody(Math.max(1, bytesPerSecond / 10), 100, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,22 @@
+package com.youssef.anti_thief.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ApiClientTest {
+
+    @Test
+    public void capabilityTokensMatchExactly() {
+        assertTrue(ApiClient.hasToken("gzip", "gzip"));
+        assertTrue(ApiClient.hasToken("identity, gzip", "gzip"));
+        assertTrue(ApiClient.hasToken("location-batch-v1,sealed-v1", "sealed-v1"));
+        assertTrue(ApiClient.hasToken(" Location-Batch-V1 ", "location-batch-v1"));
+
+        assertFalse(ApiClient.hasToken("nogzip", "gzip"));
+        assertFalse(ApiClient.hasToken("gzip-experimental", "gzip"));
+        assertFalse(ApiClient.hasToken("location-batch-v10", "location-batch-v1"));
+        assertFalse(ApiClient.hasToken("", "gzip"));
+    }
+}
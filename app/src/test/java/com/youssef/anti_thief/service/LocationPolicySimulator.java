@@ -0,0 +1,109 @@
+package com.youssef.anti_thief.service;
+
+import com.youssef.anti_thief.utils.DwellCompactor;
+import com.youssef.anti_thief.utils.LocationColumns;
+
+/**
+ * Replays a recorded trace through a {@link LocationPolicy} to see what it
+ * would have cost and how much of the track it would have kept.
+ * The trace stands in for ground truth: whenever the policy asks for a fix,
+ * the position is interpolated from the trace at that time. Fidelity is the
+ * distance, at every trace point, between the truth and the track rebuilt
+ * from the requested fixes. Intended for tuning, e.g. on a trace read back
+ * with LocationCache.readAll().
+ */
+public final class LocationPolicySimulator {
+
+    private LocationPolicySimulator() {
+    }
+
+    public static class Result {
+        public final int fixesRequested;
+        public final int highAccuracyFixes;
+        public final double maxErrorMeters;
+        public final double meanErrorMeters;
+
+        Result(int fixesRequested, int highAccuracyFixes, double maxErrorMeters, double meanErrorMeters) {
+            this.fixesRequested = fixesRequested;
+            this.highAccuracyFixes = highAccuracyFixes;
+            this.maxErrorMeters = maxErrorMeters;
+            this.meanErrorMeters = meanErrorMeters;
+        }
+
+        @Override
+        public String toString() {
+            return fixesRequested + " fixes (" + highAccuracyFixes + " high accuracy), error max "
+                    + Math.round(maxErrorMeters) + " m, mean " + Math.round(meanErrorMeters) + " m";
+        }
+    }
+
+    /**
+     * Replays the trace through a fresh policy; every simulated fix reports the given accuracy.
+     */
+    public static Result replay(LocationColumns trace, float accuracy) {
+        return run(trace, new LocationPolicy(), 0, accuracy);
+    }
+
+    /**
+     * Baseline: a fixed high accuracy request every intervalMs, as before the policy.
+     */
+    public static Result replayFixed(LocationColumns trace, long intervalMs) {
+        return run(trace, null, intervalMs, 0);
+    }
+
+    private static Result run(LocationColumns trace, LocationPolicy policy, long fixedIntervalMs, float accuracy) {
+        if (trace.isEmpty()) {
+            return new Result(0, 0, 0, 0);
+        }
+        long end = trace.getTimestamp(trace.size() - 1);
+        LocationColumns samples = new LocationColumns();
+        int highAccuracy = 0;
+        int cursor = 0;
+        for (long time = trace.getTimestamp(0); time <= end; ) {
+            while (cursor + 1 < trace.size() && trace.getTimestamp(cursor + 1) <= time) {
+                cursor++;
+            }
+            double lat = interpolate(trace, cursor, time, true);
+            double lng = interpolate(trace, cursor, time, false);
+            samples.add(samples.size(), time, lat, lng);
+
+            long interval = fixedIntervalMs;
+            if (policy != null) {
+                policy.onFix(time, lat, lng, accuracy, -1);
+                interval = policy.getMode().intervalMs;
+                if (policy.getMode().highAccuracy) {
+                    highAccuracy++;
+                }
+            } else {
+                highAccuracy++;
+            }
+            time += interval;
+        }
+
+        double max = 0;
+        double sum = 0;
+        int k = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            long time = trace.getTimestamp(i);
+            while (k + 1 < samples.size() && samples.getTimestamp(k + 1) <= time) {
+                k++;
+            }
+            double error = DwellCompactor.distanceMeters(trace.getLatitude(i), trace.getLongitude(i),
+                    interpolate(samples, k, time, true), interpolate(samples, k, time, false));
+            max = Math.max(max, error);
+            sum += error;
+        }
+        return new Result(samples.size(), highAccuracy, max, sum / trace.size());
+    }
+
+    private static double interpolate(LocationColumns points, int index, long time, boolean latitude) {
+        double from = latitude ? points.getLatitude(index) : points.getLongitude(index);
+        if (index + 1 >= points.size() || time <= points.getTimestamp(index)) {
+            return from;
+        }
+        double to = latitude ? points.getLatitude(index + 1) : points.getLongitude(index + 1);
+        double fraction = (double) (time - points.getTimestamp(index))
+                / (points.getTimestamp(index + 1) - points.getTimestamp(index));
+        return from + (to - from) * Math.min(1, fraction);
+    }
+}
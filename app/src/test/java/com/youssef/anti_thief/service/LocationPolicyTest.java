@@ -0,0 +1,147 @@
+package com.youssef.anti_thief.service;
+
+import com.youssef.anti_thief.utils.LocationColumns;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationPolicyTest {
+
+    private static final double LAT = 52.52;
+    private static final double LNG = 13.405;
+    // Meters per degree of latitude
+    private static final double METERS_PER_DEGREE = 111195;
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+
+    @Test
+    public void startsMoving() {
+        assertEquals(LocationPolicy.Mode.MOVING, new LocationPolicy().getMode());
+    }
+
+    @Test
+    public void entersStationaryOnlyAfterHold() {
+        LocationPolicy policy = new LocationPolicy();
+        for (long time = 0; time < 5 * MINUTE; time += MINUTE) {
+            assertFalse(policy.onFix(time, LAT, LNG, 10, -1));
+        }
+        assertEquals(LocationPolicy.Mode.MOVING, policy.getMode());
+        assertTrue(policy.onFix(5 * MINUTE, LAT, LNG, 10, -1));
+        assertEquals(LocationPolicy.Mode.STATIONARY, policy.getMode());
+    }
+
+    @Test
+    public void jitterWithinAccuracyDoesNotCountAsMovement() {
+        LocationPolicy policy = new LocationPolicy();
+        for (int i = 0; i <= 5; i++) {
+            // 20 m back and forth with 15 m accuracy
+            double lat = LAT + (i % 2) * 20 / METERS_PER_DEGREE;
+            policy.onFix(i * MINUTE, lat, LNG, 15, -1);
+        }
+        assertEquals(LocationPolicy.Mode.STATIONARY, policy.getMode());
+    }
+
+    @Test
+    public void leavesStationaryOnFirstMovingFix() {
+        LocationPolicy policy = stationary();
+        assertTrue(policy.onFix(10 * MINUTE, LAT, LNG, 10, 1.2f));
+        assertEquals(LocationPolicy.Mode.MOVING, policy.getMode());
+    }
+
+    @Test
+    public void leavesStationaryWhenOutsideRadius() {
+        LocationPolicy policy = stationary();
+        // 100 m away, but over long enough that the derived speed stays below walking
+        assertTrue(policy.onFix(20 * MINUTE, LAT + 100 / METERS_PER_DEGREE, LNG, 10, -1));
+        assertEquals(LocationPolicy.Mode.MOVING, policy.getMode());
+    }
+
+    @Test
+    public void fastNeedsTwoFastFixesInARow() {
+        LocationPolicy policy = new LocationPolicy();
+        assertFalse(policy.onFix(0, LAT, LNG, 10, 10));
+        // A slow fix breaks the streak
+        assertFalse(policy.onFix(20 * SECOND, LAT, LNG, 10, 2));
+        assertFalse(policy.onFix(40 * SECOND, LAT, LNG, 10, 10));
+        assertEquals(LocationPolicy.Mode.MOVING, policy.getMode());
+        assertTrue(policy.onFix(60 * SECOND, LAT, LNG, 10, 10));
+        assertEquals(LocationPolicy.Mode.FAST, policy.getMode());
+    }
+
+    @Test
+    public void leavesFastAfterThreeSlowFixesInARow() {
+        LocationPolicy policy = new LocationPolicy();
+        policy.onFix(0, LAT, LNG, 10, 10);
+        policy.onFix(20 * SECOND, LAT, LNG, 10, 10);
+        assertEquals(LocationPolicy.Mode.FAST, policy.getMode());
+
+        assertFalse(policy.onFix(40 * SECOND, LAT, LNG, 10, 2));
+        assertFalse(policy.onFix(60 * SECOND, LAT, LNG, 10, 2));
+        // A fast fix restarts the count
+        assertFalse(policy.onFix(80 * SECOND, LAT, LNG, 10, 10));
+        assertFalse(policy.onFix(100 * SECOND, LAT, LNG, 10, 2));
+        assertFalse(policy.onFix(120 * SECOND, LAT, LNG, 10, 2));
+        assertEquals(LocationPolicy.Mode.FAST, policy.getMode());
+        assertTrue(policy.onFix(140 * SECOND, LAT, LNG, 10, 2));
+        assertEquals(LocationPolicy.Mode.MOVING, policy.getMode());
+    }
+
+    @Test
+    public void stationaryTraceUsesFewLowPowerFixes() {
+        LocationColumns trace = new LocationColumns();
+        for (int i = 0; i <= 60; i++) {
+            trace.add(i, i * MINUTE, LAT, LNG);
+        }
+        LocationPolicySimulator.Result policy = LocationPolicySimulator.replay(trace, 10);
+        LocationPolicySimulator.Result fixed = LocationPolicySimulator.replayFixed(trace, MINUTE);
+
+        assertEquals(61, fixed.fixesRequested);
+        assertEquals(61, fixed.highAccuracyFixes);
+        // Five minutes of one-minute fixes to settle, then one every three minutes
+        assertEquals(24, policy.fixesRequested);
+        assertEquals(5, policy.highAccuracyFixes);
+        assertEquals(0, policy.maxErrorMeters, 0.01);
+    }
+
+    @Test
+    public void mixedTraceMatchesFastRateFidelityAtHalfTheCost() {
+        LocationColumns trace = new LocationColumns();
+        double lat = LAT;
+        long time = 0;
+        // Half an hour parked, half an hour walking, half an hour driving
+        for (int i = 0; i < 180; i++, time += 10 * SECOND) {
+            trace.add(trace.size(), time, lat, LNG);
+        }
+        for (int i = 0; i < 180; i++, time += 10 * SECOND) {
+            lat += 15 / METERS_PER_DEGREE;
+            trace.add(trace.size(), time, lat, LNG);
+        }
+        for (int i = 0; i < 180; i++, time += 10 * SECOND) {
+            lat += 150 / METERS_PER_DEGREE;
+            trace.add(trace.size(), time, lat, LNG);
+        }
+
+        LocationPolicySimulator.Result policy = LocationPolicySimulator.replay(trace, 10);
+        LocationPolicySimulator.Result everyMinute = LocationPolicySimulator.replayFixed(trace, MINUTE);
+        LocationPolicySimulator.Result fastRate = LocationPolicySimulator.replayFixed(trace, 20 * SECOND);
+
+        // Driving is tracked as tightly as a fixed 20 s request would...
+        assertEquals(fastRate.maxErrorMeters, policy.maxErrorMeters, 1);
+        assertTrue(policy + " vs " + everyMinute, policy.maxErrorMeters < everyMinute.maxErrorMeters / 4);
+        // ...while parking and walking do not pay for it
+        assertTrue(policy + " vs " + fastRate, policy.fixesRequested < fastRate.fixesRequested / 2);
+        assertTrue(policy + " vs " + fastRate, policy.highAccuracyFixes < fastRate.highAccuracyFixes / 2);
+    }
+
+    private static LocationPolicy stationary() {
+        LocationPolicy policy = new LocationPolicy();
+        for (long time = 0; time <= 5 * MINUTE; time += MINUTE) {
+            policy.onFix(time, LAT, LNG, 10, -1);
+        }
+        assertEquals(LocationPolicy.Mode.STATIONARY, policy.getMode());
+        return policy;
+    }
+}
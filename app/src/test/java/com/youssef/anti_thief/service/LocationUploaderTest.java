@@ -0,0 +1,336 @@
+package com.youssef.anti_thief.service;
+
+import com.youssef.anti_thief.DTO.LocationPayload;
+import com.youssef.anti_thief.TestContext;
+import com.youssef.anti_thief.backend.FakeBackend;
+import com.youssef.anti_thief.utils.LocationCache;
+import com.youssef.anti_thief.utils.LocationColumns;
+import com.youssef.anti_thief.utils.SealedSegmentStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives LocationUploader and BacklogUploader through ApiService against the
+ * FakeBackend, one test per upload format plus fault injection.
+ */
+public class LocationUploaderTest {
+
+    private static final String AES_KEY = "uploader test key";
+    private static final String API_KEY = "api-key";
+    private static final String DEVICE_ID = "test-device";
+    private static final long START = 1700000000000L;
+    private static final long MINUTE = 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+    private FakeBackend backend;
+    private LocationCache cache;
+    private SealedSegmentStore segments;
+    private LocationUploader uploader;
+    private final Random random = new Random(11);
+
+    @Before
+    public void setUp() throws IOException {
+        backend = new FakeBackend(AES_KEY, API_KEY);
+        backend.start();
+        context = new TestContext(folder.getRoot());
+        cache = new LocationCache(context);
+        cache.clearAll();
+        segments = new SealedSegmentStore(context);
+        uploader = new LocationUploader(segments, DEVICE_ID);
+        // Capabilities are process-wide and each test negotiates its own
+        ApiClient.setRequestGzipSupported(false);
+        ApiClient.setBinaryBatchSupported(false);
+        ApiClient.setSealedEnvelopeSupported(false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        backend.shutdown();
+    }
+
+    @Test
+    public void plainJson() {
+        configure("");
+        serverAccepts(false, false, false);
+        addFixes(120);
+
+        BacklogUploader.Result result = drain(50, 2, 10);
+        assertEquals(3, result.pages);
+        assertEquals(120, result.acknowledgedFixes);
+        assertFalse(result.failed);
+        assertEquals(3, requests("POST /api/location"));
+        assertStoredAll();
+    }
+
+    @Test
+    public void gzipJson() {
+        configure("");
+        serverAccepts(true, false, false);
+        ApiClient.setRequestGzipSupported(true);
+        addFixes(200);
+
+        drain(200, 1, 1);
+        assertEquals(1, requests("POST /api/location"));
+        // About 95 bytes a fix as plain JSON
+        assertTrue(backend.getBytesReceived() + " bytes", backend.getBytesReceived() < 200 * 40);
+        assertStoredAll();
+    }
+
+    @Test
+    public void rejectedGzipIsResentPlain() {
+        configure("");
+        serverAccepts(false, false, false);
+        ApiClient.setRequestGzipSupported(true);
+        addFixes(30);
+
+        BacklogUploader.Result result = drain(30, 1, 1);
+        assertEquals(30, result.acknowledgedFixes);
+        assertEquals(2, requests("POST /api/location"));
+        assertFalse(ApiClient.isRequestGzipSupported());
+        assertStoredAll();
+    }
+
+    @Test
+    public void binaryBatchKeepsDwells() {
+        configure("");
+        serverAccepts(false, true, false);
+        ApiClient.setBinaryBatchSupported(true);
+        addFixes(40);
+        long dwellStart = START + 100 * MINUTE;
+        cache.addDwell(dwellStart, dwellStart + 45 * MINUTE, 52.5, 13.4, 46, DEVICE_ID);
+
+        drain(100, 1, 1);
+        assertEquals(1, requests("POST /api/location/batch"));
+        List<LocationPayload> stored = assertStoredAll();
+        LocationPayload dwell = stored.get(stored.size() - 1);
+        assertEquals(Integer.valueOf(46), dwell.dwellCount);
+        assertEquals(Long.valueOf(dwellStart + 45 * MINUTE), dwell.dwellUntil);
+    }
+
+    @Test
+    public void rejectedBinaryBatchIsResentAsJson() {
+        configure("");
+        serverAccepts(false, false, false);
+        ApiClient.setBinaryBatchSupported(true);
+        addFixes(30);
+
+        assertEquals(30, drain(30, 1, 1).acknowledgedFixes);
+        assertEquals(1, requests("POST /api/location/batch"));
+        assertEquals(1, requests("POST /api/location"));
+        assertFalse(ApiClient.isBinaryBatchSupported());
+        assertStoredAll();
+    }
+
+    @Test
+    public void secureStreamedJson() {
+        configure(AES_KEY);
+        serverAccepts(true, false, false);
+        ApiClient.setRequestGzipSupported(true);
+        addFixes(150);
+
+        BacklogUploader.Result result = drain(50, 2, 10);
+        assertEquals(150, result.acknowledgedFixes);
+        assertEquals(3, requests("POST /api/secure/location"));
+        assertStoredAll();
+    }
+
+    @Test
+    public void secureBinaryEnvelope() {
+        configure(AES_KEY);
+        serverAccepts(false, true, false);
+        ApiClient.setBinaryBatchSupported(true);
+        addFixes(80);
+
+        drain(80, 1, 1);
+        assertEquals(1, requests("POST /api/secure/location"));
+        assertEquals(0, requests("POST /api/location/batch"));
+        assertStoredAll();
+    }
+
+    @Test
+    public void sealedSegmentsAreDroppedOnceAcknowledged() {
+        configure(AES_KEY);
+        serverAccepts(false, true, true);
+        ApiClient.setBinaryBatchSupported(true);
+        ApiClient.setSealedEnvelopeSupported(true);
+        addFixes(100);
+
+        BacklogUploader.Result result = drain(25, 2, 10);
+        assertEquals(4, result.pages);
+        assertFalse(result.failed);
+        assertEquals(4, requests("POST /api/secure/location"));
+        assertEquals(0, segments.size());
+        assertStoredAll();
+    }
+
+    @Test
+    public void rejectedSealedEnvelopesOnlyDropTheirOwnSegment() {
+        configure(AES_KEY);
+        serverAccepts(false, true, false);
+        ApiClient.setBinaryBatchSupported(true);
+        ApiClient.setSealedEnvelopeSupported(true);
+        addFixes(100);
+
+        // Both pages in flight are sealed before either sees the 415
+        BacklogUploader.Result result = drain(25, 2, 10);
+        assertFalse(result.failed);
+        assertEquals(100, result.acknowledgedFixes);
+        assertFalse(ApiClient.isSealedEnvelopeSupported());
+        assertEquals(0, segments.size());
+        assertStoredAll();
+    }
+
+    @Test
+    public void failedSealedSegmentIsResentVerbatim() {
+        configure(AES_KEY);
+        serverAccepts(false, true, true);
+        ApiClient.setBinaryBatchSupported(true);
+        ApiClient.setSealedEnvelopeSupported(true);
+        addFixes(60);
+        backend.failNext(2, 503);
+        long cursor = cache.getSyncCursor();
+
+        String sealedId = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            BacklogUploader.Result result = drain(20, 1, 10);
+            assertTrue(result.failed);
+            assertEquals(0, result.acknowledgedFixes);
+            assertEquals(cursor, cache.getSyncCursor());
+            // The first page stays sealed on disk and is posted again as is
+            assertEquals(1, segments.size());
+            String id = segments.find(cursor).id;
+            assertTrue(sealedId == null || sealedId.equals(id));
+            sealedId = id;
+        }
+
+        BacklogUploader.Result result = drain(20, 1, 10);
+        assertFalse(result.failed);
+        assertEquals(60, result.acknowledgedFixes);
+        assertEquals(2, backend.getInjectedFailures());
+        assertEquals(0, segments.size());
+        assertStoredAll();
+    }
+
+    @Test
+    public void acknowledgementsStayOrderedUnderRandomFaults() {
+        configure(AES_KEY);
+        serverAccepts(false, true, true);
+        ApiClient.setBinaryBatchSupported(true);
+        ApiClient.setSealedEnvelopeSupported(true);
+        addFixes(300);
+        LocationColumns all = new LocationColumns();
+        cache.readAll(all);
+        backend.setFailureRate(0.3, 503);
+
+        long cursor = cache.getSyncCursor();
+        for (int drains = 0; cache.getUnsyncedCount() > 0; drains++) {
+            assertTrue("Backlog not drained after " + drains + " drains", drains < 200);
+            drain(20, 3, 5);
+
+            // The cursor only ever covers a prefix the server has in full
+            long next = cache.getSyncCursor();
+            assertTrue(next >= cursor);
+            cursor = next;
+            Set<Long> stored = storedTimestamps();
+            for (int i = 0; i < all.size() && all.getSeq(i) < cursor; i++) {
+                assertTrue("Acknowledged seq " + all.getSeq(i) + " missing on the server",
+                        stored.contains(all.getTimestamp(i)));
+            }
+        }
+        assertTrue(backend.getInjectedFailures() > 0);
+        assertEquals(0, segments.size());
+        assertStoredAll();
+    }
+
+    @Test
+    public void unconfiguredServerSendsNothing() {
+        context.configure("", "", API_KEY);
+        addFixes(10);
+
+        BacklogUploader.Result result = drain(10, 1, 1);
+        assertTrue(result.failed);
+        assertEquals(10, cache.getUnsyncedCount());
+        assertNull(ApiClient.getApiService());
+    }
+
+    private void configure(String aesKey) {
+        context.configure(backend.url(), aesKey, API_KEY);
+    }
+
+    private void serverAccepts(boolean gzip, boolean binaryBatch, boolean sealedEnvelope) {
+        backend.setGzipAccepted(gzip);
+        backend.setBinaryBatchAccepted(binaryBatch);
+        backend.setSealedEnvelopeAccepted(sealedEnvelope);
+    }
+
+    private void addFixes(int count) {
+        double lat = 52.52;
+        double lng = 13.405;
+        for (int i = 0; i < count; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-3;
+            lng += (random.nextDouble() - 0.5) * 1e-3;
+            assertTrue(cache.addLocation(START + i * MINUTE, lat, lng, DEVICE_ID));
+        }
+    }
+
+    private BacklogUploader.Result drain(int pageSize, int maxInFlight, int maxPages) {
+        BacklogUploader backlog = new BacklogUploader(cache, uploader, segments, pageSize, maxInFlight);
+        try {
+            return backlog.drain(maxPages);
+        } finally {
+            backlog.shutdown();
+        }
+    }
+
+    private int requests(String endpoint) {
+        Map<String, Integer> counts = backend.getRequestCounts();
+        return counts.containsKey(endpoint) ? counts.get(endpoint) : 0;
+    }
+
+    private Set<Long> storedTimestamps() {
+        Set<Long> timestamps = new HashSet<>();
+        for (LocationPayload payload : backend.getLocations(DEVICE_ID)) {
+            timestamps.add(payload.timestamp);
+        }
+        return timestamps;
+    }
+
+    /**
+     * Checks the server holds every cached fix exactly once, at the cached
+     * position, and that the cache has nothing left to send.
+     */
+    private List<LocationPayload> assertStoredAll() {
+        LocationColumns cached = new LocationColumns();
+        cache.readAll(cached);
+        List<LocationPayload> stored = backend.getLocations(DEVICE_ID);
+        assertEquals(cached.size(), stored.size());
+        assertEquals(cached.size(), backend.getStoredCount());
+        for (int i = 0; i < cached.size(); i++) {
+            LocationPayload payload = stored.get(i);
+            assertEquals(cached.getTimestamp(i), payload.timestamp);
+            assertEquals(cached.getLatitude(i), payload.latitude, 1e-7);
+            assertEquals(cached.getLongitude(i), payload.longitude, 1e-7);
+        }
+        assertEquals(0, cache.getUnsyncedCount());
+        return stored;
+    }
+}
@@ -0,0 +1,124 @@
+package com.youssef.anti_thief.service;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncPolicyTest {
+
+    private static final long BASE = SyncPolicy.BASE_INTERVAL_MS;
+    private static final long MINUTE = 60 * 1000L;
+    private static final long NOW = 1700000000000L;
+
+    @Test
+    public void fullBatchWithBacklogDrainsImmediately() {
+        SyncPolicy policy = new SyncPolicy(100);
+        assertEquals(0, policy.onResult(SyncPolicy.Outcome.SUCCESS, 100, 50));
+        assertEquals(BASE, policy.onResult(SyncPolicy.Outcome.SUCCESS, 100, 0));
+        assertEquals(BASE, policy.onResult(SyncPolicy.Outcome.SUCCESS, 40, 0));
+    }
+
+    @Test
+    public void emptyCacheStretchesIntervalUpToIdleCap() {
+        SyncPolicy policy = new SyncPolicy(100);
+        for (int i = 1; i <= 15; i++) {
+            assertEquals(BASE * i, policy.onResult(SyncPolicy.Outcome.EMPTY, 0, 0));
+        }
+        assertEquals(15 * MINUTE, policy.onResult(SyncPolicy.Outcome.EMPTY, 0, 0));
+        // Anything to send resets the stretch
+        policy.onResult(SyncPolicy.Outcome.SUCCESS, 5, 0);
+        assertEquals(BASE, policy.onResult(SyncPolicy.Outcome.EMPTY, 0, 0));
+    }
+
+    @Test
+    public void failuresBackOffWithinJitterBounds() {
+        for (int failures = 1; failures <= 40; failures++) {
+            long ceiling = Math.min(30 * MINUTE, BASE << Math.min(failures - 1, 16));
+            for (int run = 0; run < 50; run++) {
+                SyncPolicy policy = new SyncPolicy(100);
+                long delay = 0;
+                for (int i = 0; i < failures; i++) {
+                    delay = policy.onResult(i % 2 == 0 ? SyncPolicy.Outcome.FAILURE : SyncPolicy.Outcome.OFFLINE, 0, 10);
+                }
+                assertTrue(failures + " failures: " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void backoffIsJittered() {
+        Set<Long> delays = new HashSet<>();
+        for (int run = 0; run < 20; run++) {
+            SyncPolicy policy = new SyncPolicy(100);
+            policy.onResult(SyncPolicy.Outcome.FAILURE, 0, 10);
+            delays.add(policy.onResult(SyncPolicy.Outcome.FAILURE, 0, 10));
+        }
+        assertTrue(delays.size() > 10);
+    }
+
+    @Test
+    public void successResetsBackoff() {
+        SyncPolicy policy = new SyncPolicy(100);
+        for (int i = 0; i < 10; i++) {
+            policy.onResult(SyncPolicy.Outcome.FAILURE, 0, 10);
+        }
+        assertEquals(10, policy.getMetrics().consecutiveFailures);
+        policy.onResult(SyncPolicy.Outcome.SUCCESS, 10, 0);
+        assertEquals(0, policy.getMetrics().consecutiveFailures);
+        long delay = policy.onResult(SyncPolicy.Outcome.FAILURE, 0, 10);
+        assertTrue(delay >= BASE / 2 && delay <= BASE);
+    }
+
+    @Test
+    public void largeBacklogFlushesOncePerSync() {
+        SyncPolicy policy = new SyncPolicy(100);
+        assertFalse(policy.shouldFlushNow(99, NOW, NOW));
+        assertTrue(policy.shouldFlushNow(100, NOW, NOW));
+        // Already requested: no second flush until the sync reports back
+        assertFalse(policy.shouldFlushNow(150, NOW, NOW));
+        policy.onResult(SyncPolicy.Outcome.SUCCESS, 100, 50);
+        assertTrue(policy.shouldFlushNow(150, NOW, NOW));
+        assertEquals(2, policy.getMetrics().flushes);
+    }
+
+    @Test
+    public void oldBacklogFlushes() {
+        SyncPolicy policy = new SyncPolicy(100);
+        assertFalse(policy.shouldFlushNow(1, NOW - 10 * MINUTE + 1, NOW));
+        assertTrue(policy.shouldFlushNow(1, NOW - 10 * MINUTE, NOW));
+    }
+
+    @Test
+    public void noFlushWhileBackingOffOrEmpty() {
+        SyncPolicy policy = new SyncPolicy(100);
+        assertFalse(policy.shouldFlushNow(0, 0, NOW));
+        policy.onResult(SyncPolicy.Outcome.FAILURE, 0, 500);
+        assertFalse(policy.shouldFlushNow(500, NOW - 60 * MINUTE, NOW));
+        policy.onResult(SyncPolicy.Outcome.SUCCESS, 100, 400);
+        assertTrue(policy.shouldFlushNow(500, NOW - 60 * MINUTE, NOW));
+    }
+
+    @Test
+    public void metricsCountEveryOutcome() {
+        SyncPolicy policy = new SyncPolicy(100);
+        policy.onResult(SyncPolicy.Outcome.SUCCESS, 10, 0);
+        policy.onResult(SyncPolicy.Outcome.EMPTY, 0, 0);
+        policy.onResult(SyncPolicy.Outcome.EMPTY, 0, 0);
+        policy.onResult(SyncPolicy.Outcome.OFFLINE, 0, 3);
+        long delay = policy.onResult(SyncPolicy.Outcome.FAILURE, 0, 3);
+
+        SyncPolicy.Metrics metrics = policy.getMetrics();
+        assertEquals(1, metrics.successes);
+        assertEquals(2, metrics.empties);
+        assertEquals(1, metrics.offlines);
+        assertEquals(1, metrics.failures);
+        assertEquals(2, metrics.consecutiveFailures);
+        assertEquals(delay, metrics.lastDelayMs);
+        assertEquals(SyncPolicy.Outcome.FAILURE, metrics.lastOutcome);
+    }
+}
@@ -0,0 +1,162 @@
+package com.youssef.anti_thief.utils;
+
+import android.util.Base64;
+
+import com.youssef.anti_thief.TestContext;
+import com.youssef.anti_thief.config.Config;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * JMH comparison of AESEncryption's cached crypto context against the
+ * per-call setup it replaced, on message sizes a single fix or a small
+ * page of them produces. Both sides read the key string from Config and
+ * return Base64, so the difference is the key derivation, Cipher lookup
+ * and SecureRandom seeding the old path paid on every message.
+ *
+ * Skipped in normal test runs; run with ./gradlew testDebugUnitTest -Pbenchmark
+ * --tests '*AESEncryptionBenchmark'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AESEncryptionBenchmark {
+
+    private static final String KEY = "0f1e2d3c4b5a69788796a5b4c3d2e1f00f1e2d3c4b5a69788796a5b4c3d2e1f0";
+
+    @Param({"100", "1000"})
+    public int payloadBytes;
+
+    private File dir;
+    private byte[] payload;
+    private String encrypted;
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        new Runner(new OptionsBuilder().include(AESEncryptionBenchmark.class.getName() + "\\.").build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("aes-benchmark").toFile();
+        new TestContext(dir).configure("http://localhost/", KEY, "api-key");
+        payload = new byte[payloadBytes];
+        new Random(21).nextBytes(payload);
+        encrypted = AESEncryption.encrypt(payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String encryptCached() {
+        return AESEncryption.encrypt(payload);
+    }
+
+    @Benchmark
+    public String encryptPerCall() throws GeneralSecurityException {
+        return LegacyAesEncryption.encrypt(payload);
+    }
+
+    @Benchmark
+    public byte[] decryptCached() {
+        return AESEncryption.decryptBytes(Base64.decode(encrypted, Base64.NO_WRAP));
+    }
+
+    @Benchmark
+    public byte[] decryptPerCall() throws GeneralSecurityException {
+        return LegacyAesEncryption.decrypt(encrypted);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The pre-cache AESEncryption: key string read, SHA-256, Cipher.getInstance
+     * and a new SecureRandom on every message.
+     */
+    static class LegacyAesEncryption {
+
+        private static final String ALGORITHM = "AES/GCM/NoPadding";
+        private static final int GCM_TAG_LENGTH = 128;
+
+        static String encrypt(byte[] plaintext) throws GeneralSecurityException {
+            SecretKeySpec secretKey = deriveKey(Config.getAesKey());
+
+            byte[] iv = new byte[AESEncryption.GCM_IV_LENGTH];
+            new SecureRandom().nextBytes(iv);
+
+            Cipher cipher = Cipher.getInstance(ALGORITHM);
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            byte[] ciphertext = cipher.doFinal(plaintext);
+
+            byte[] combined = new byte[iv.length + ciphertext.length];
+            System.arraycopy(iv, 0, combined, 0, iv.length);
+            System.arraycopy(ciphertext, 0, combined, iv.length, ciphertext.length);
+            return Base64.encodeToString(combined, Base64.NO_WRAP);
+        }
+
+        static byte[] decrypt(String encryptedBase64) throws GeneralSecurityException {
+            SecretKeySpec secretKey = deriveKey(Config.getAesKey());
+
+            byte[] combined = Base64.decode(encryptedBase64, Base64.NO_WRAP);
+            byte[] iv = new byte[AESEncryption.GCM_IV_LENGTH];
+            byte[] ciphertext = new byte[combined.length - AESEncryption.GCM_IV_LENGTH];
+            System.arraycopy(combined, 0, iv, 0, iv.length);
+            System.arraycopy(combined, iv.length, ciphertext, 0, ciphertext.length);
+
+            Cipher cipher = Cipher.getInstance(ALGORITHM);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            return cipher.doFinal(ciphertext);
+        }
+
+        private static SecretKeySpec deriveKey(String password) throws GeneralSecurityException {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new SecretKeySpec(digest.digest(password.getBytes(StandardCharsets.UTF_8)), "AES");
+        }
+    }
+}
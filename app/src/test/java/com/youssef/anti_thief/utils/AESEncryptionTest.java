@@ -0,0 +1,183 @@
+package com.youssef.anti_thief.utils;
+
+import com.youssef.anti_thief.TestContext;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.ShortBufferException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class AESEncryptionTest {
+
+    private static final String KEY = "0f1e2d3c4b5a69788796a5b4c3d2e1f00f1e2d3c4b5a69788796a5b4c3d2e1f0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+
+    @Before
+    public void setUp() {
+        context = new TestContext(folder.getRoot());
+        context.configure("http://localhost/", KEY, "api-key");
+    }
+
+    @Test
+    public void roundTripsWithConfiguredKey() {
+        byte[] plaintext = "{\"latitude\":52.52}".getBytes(StandardCharsets.UTF_8);
+        byte[] combined = AESEncryption.encryptToBytes(plaintext);
+
+        assertEquals(AESEncryption.encryptedSize(plaintext.length), combined.length);
+        assertArrayEquals(plaintext, AESEncryption.decryptBytes(combined));
+    }
+
+    @Test
+    public void everyMessageGetsAFreshIv() {
+        byte[] plaintext = new byte[32];
+        byte[] first = AESEncryption.encryptToBytes(plaintext);
+        byte[] second = AESEncryption.encryptToBytes(plaintext);
+        assertFalse(Arrays.equals(Arrays.copyOf(first, AESEncryption.GCM_IV_LENGTH),
+                Arrays.copyOf(second, AESEncryption.GCM_IV_LENGTH)));
+    }
+
+    @Test
+    public void tamperedOrForeignCiphertextIsRejected() {
+        byte[] combined = AESEncryption.encryptToBytes(new byte[100]);
+        combined[50] ^= 1;
+        assertNull(AESEncryption.decryptBytes(combined));
+        assertNull(AESEncryption.decryptBytes(new byte[5]));
+        assertNull(AESEncryption.decryptBytes(null));
+    }
+
+    @Test
+    public void changedKeyIsPickedUp() {
+        byte[] combined = AESEncryption.encryptToBytes(new byte[16]);
+        context.configure("http://localhost/", "another key", "api-key");
+        assertNull(AESEncryption.decryptBytes(combined));
+        context.configure("http://localhost/", KEY, "api-key");
+        assertArrayEquals(new byte[16], AESEncryption.decryptBytes(combined));
+    }
+
+    @Test
+    public void missingKeyEncryptsNothing() {
+        context.configure("http://localhost/", "", "api-key");
+        assertNull(AESEncryption.encryptToBytes(new byte[16]));
+        try {
+            AESEncryption.encrypt(ByteBuffer.allocate(16), ByteBuffer.allocate(64), null);
+            fail("Encrypted without a key");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+
+    @Test
+    public void aadIsAuthenticated() throws GeneralSecurityException {
+        byte[] plaintext = "payload".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer aad = ByteBuffer.wrap("device-1|1700000000000".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer sealed = ByteBuffer.allocate(AESEncryption.encryptedSize(plaintext.length));
+        assertEquals(sealed.capacity(), AESEncryption.encrypt(ByteBuffer.wrap(plaintext), sealed, aad));
+        // The aad buffer itself is left untouched
+        assertEquals(0, aad.position());
+
+        ByteBuffer out = ByteBuffer.allocate(plaintext.length);
+        assertEquals(plaintext.length, AESEncryption.decrypt((ByteBuffer) sealed.duplicate().flip(), out, aad));
+        assertArrayEquals(plaintext, out.array());
+
+        assertBadTag(sealed, ByteBuffer.wrap("device-2|1700000000000".getBytes(StandardCharsets.UTF_8)));
+        assertBadTag(sealed, null);
+    }
+
+    @Test
+    public void worksOnDirectBuffersAndOffsets() throws GeneralSecurityException {
+        byte[] plaintext = new byte[1000];
+        new Random(3).nextBytes(plaintext);
+        ByteBuffer in = ByteBuffer.allocateDirect(1100);
+        in.position(100);
+        in.put(plaintext);
+        in.position(100);
+        ByteBuffer sealed = ByteBuffer.allocateDirect(AESEncryption.encryptedSize(1000) + 7);
+        sealed.position(7);
+        AESEncryption.encrypt(in, sealed, null);
+
+        sealed.position(7);
+        ByteBuffer out = ByteBuffer.allocate(1000);
+        AESEncryption.decrypt(sealed, out, null);
+        assertArrayEquals(plaintext, out.array());
+    }
+
+    @Test(expected = ShortBufferException.class)
+    public void rejectsShortOutputBuffer() throws GeneralSecurityException {
+        AESEncryption.encrypt(ByteBuffer.allocate(100), ByteBuffer.allocate(AESEncryption.encryptedSize(100) - 1), null);
+    }
+
+    @Test
+    public void threadCiphersAreIndependent() throws Exception {
+        int threads = 8;
+        int messages = 300;
+        ExecutorService encrypters = Executors.newFixedThreadPool(threads);
+        ExecutorService decrypters = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[][]>> sealed = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                sealed.add(encrypters.submit(() -> {
+                    Random random = new Random(seed);
+                    byte[][] pairs = new byte[messages * 2][];
+                    for (int i = 0; i < messages; i++) {
+                        byte[] plaintext = new byte[random.nextInt(2000)];
+                        random.nextBytes(plaintext);
+                        pairs[2 * i] = plaintext;
+                        pairs[2 * i + 1] = AESEncryption.encryptToBytes(plaintext);
+                    }
+                    return pairs;
+                }));
+            }
+
+            // Each batch is opened on other threads than the one that sealed it
+            List<Future<Integer>> opened = new ArrayList<>();
+            for (Future<byte[][]> future : sealed) {
+                byte[][] pairs = future.get();
+                for (int i = 0; i < pairs.length; i += 2) {
+                    byte[] plaintext = pairs[i];
+                    byte[] combined = pairs[i + 1];
+                    opened.add(decrypters.submit(() -> Arrays.equals(plaintext, AESEncryption.decryptBytes(combined)) ? 1 : 0));
+                }
+            }
+            int matches = 0;
+            for (Future<Integer> future : opened) {
+                matches += future.get();
+            }
+            assertEquals(threads * messages, matches);
+        } finally {
+            encrypters.shutdownNow();
+            decrypters.shutdownNow();
+        }
+    }
+
+    private static void assertBadTag(ByteBuffer sealed, ByteBuffer aad) throws GeneralSecurityException {
+        try {
+            AESEncryption.decrypt((ByteBuffer) sealed.duplicate().flip(), ByteBuffer.allocate(sealed.capacity()), aad);
+            fail("Opened with the wrong aad");
+        } catch (AEADBadTagException expected) {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.youssef.anti_thief.utils;
+
+import com.youssef.anti_thief.TestContext;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DwellCompactorTest {
+
+    private static final double LAT = 52.52;
+    private static final double LNG = 13.405;
+    // Meters per degree of latitude
+    private static final double METERS_PER_DEGREE = 111195;
+    private static final long MINUTE = 60 * 1000L;
+    private static final long START = 1700000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+    private LocationCache cache;
+
+    @Before
+    public void setUp() {
+        context = new TestContext(folder.getRoot());
+        cache = new LocationCache(context);
+        cache.clearAll();
+    }
+
+    @Test
+    public void collapsesAStayIntoOneDwellRecord() {
+        DwellCompactor compactor = new DwellCompactor(cache);
+        assertTrue(compactor.offer(START, LAT, LNG, 10, "device"));
+        for (int i = 1; i <= 10; i++) {
+            // Jitter within the stationary radius
+            assertFalse(compactor.offer(START + i * MINUTE, LAT + (i % 2) * 10 / METERS_PER_DEGREE, LNG, 10, "device"));
+        }
+        assertEquals(1, stored().size());
+
+        assertTrue(compactor.offer(START + 11 * MINUTE, LAT + 500 / METERS_PER_DEGREE, LNG, 10, "device"));
+        LocationColumns stored = stored();
+        assertEquals(3, stored.size());
+        assertTrue(stored.isDwell(1));
+        assertEquals(10, stored.getCount(1));
+        assertEquals(START + MINUTE, stored.getTimestamp(1));
+        assertEquals(9 * 60, stored.getSpanSeconds(1));
+        assertEquals(LAT + 5 / METERS_PER_DEGREE, stored.getLatitude(1), 1e-6);
+    }
+
+    @Test
+    public void longStayIsWrittenEveryHeartbeat() {
+        DwellCompactor compactor = new DwellCompactor(cache);
+        compactor.offer(START, LAT, LNG, 10, "device");
+        for (int i = 1; i <= 31; i++) {
+            compactor.offer(START + i * MINUTE, LAT, LNG, 10, "device");
+        }
+        LocationColumns stored = stored();
+        assertEquals(2, stored.size());
+        assertEquals(31, stored.getCount(1));
+        assertEquals(30 * 60, stored.getSpanSeconds(1));
+    }
+
+    @Test
+    public void openDwellSurvivesAProcessKill() {
+        DwellCompactor killed = new DwellCompactor(cache);
+        killed.offer(START, LAT, LNG, 10, "device");
+        for (int i = 1; i <= 20; i++) {
+            killed.offer(START + i * MINUTE, LAT, LNG, 10, "device");
+        }
+        assertEquals(1, stored().size());
+
+        // A new process: same files, fresh objects, no flush() from the old one
+        LocationCache restartedCache = new LocationCache(context);
+        DwellCompactor restarted = new DwellCompactor(restartedCache);
+        // The restored anchor still absorbs fixes at the same place
+        assertFalse(restarted.offer(START + 21 * MINUTE, LAT, LNG, 10, "device"));
+        restarted.flush();
+
+        LocationColumns stored = stored();
+        assertEquals(2, stored.size());
+        assertEquals(21, stored.getCount(1));
+        assertEquals(START + MINUTE, stored.getTimestamp(1));
+        assertEquals(20 * 60, stored.getSpanSeconds(1));
+    }
+
+    @Test
+    public void flushedDwellIsNotWrittenAgainAfterRestart() {
+        DwellCompactor compactor = new DwellCompactor(cache);
+        compactor.offer(START, LAT, LNG, 10, "device");
+        compactor.offer(START + MINUTE, LAT, LNG, 10, "device");
+        compactor.offer(START + 2 * MINUTE, LAT, LNG, 10, "device");
+        compactor.flush();
+        assertEquals(2, stored().size());
+
+        new DwellCompactor(cache).flush();
+        assertEquals(2, stored().size());
+    }
+
+    private LocationColumns stored() {
+        LocationColumns stored = new LocationColumns();
+        cache.readAll(stored);
+        return stored;
+    }
+}
@@ -0,0 +1,69 @@
+package com.youssef.anti_thief.utils;
+
+import com.google.gson.Gson;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH cost of gzipping a JSON location backlog of 1k and 10k fixes, the
+ * price of the smaller request body. The JSON is built once; serializing it
+ * is measured separately by TrajectoryCodecBenchmark. Sizes are printed once
+ * per trial; shrinksLongBacklogs in GzipCompressionTest asserts them.
+ *
+ * Skipped in normal test runs; run with ./gradlew testDebugUnitTest -Pbenchmark
+ * --tests '*GzipCompressionBenchmark'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GzipCompressionBenchmark {
+
+    @Param({"1000", "10000"})
+    public int fixes;
+
+    private byte[] json;
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        new Runner(new OptionsBuilder().include(GzipCompressionBenchmark.class.getName() + "\\.").build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        LocationColumns points = TrajectoryCodecTest.randomWalk(fixes, new Random(fixes));
+        json = new Gson().toJson(TrajectoryCodecTest.payloads(points, "Google_Pixel 7_unknown"))
+                .getBytes(StandardCharsets.UTF_8);
+        System.out.printf("%d fixes: json %d bytes, gzip %d bytes%n", fixes, json.length,
+                GzipCompression.compress(json).length);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return GzipCompression.compress(json);
+    }
+}
@@ -0,0 +1,74 @@
+package com.youssef.anti_thief.utils;
+
+import com.google.gson.Gson;
+import com.youssef.anti_thief.DTO.LocationPayload;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GzipCompressionTest {
+
+    @Test
+    public void roundTrips() throws IOException {
+        byte[] data = new byte[100000];
+        new Random(5).nextBytes(data);
+        assertArrayEquals(data, gunzip(GzipCompression.compress(data)));
+        assertArrayEquals(new byte[0], gunzip(GzipCompression.compress(new byte[0])));
+    }
+
+    @Test
+    public void shrinksJsonLocationBatches() throws IOException {
+        List<LocationPayload> payloads = new ArrayList<>();
+        Random random = new Random(6);
+        double lat = 52.52;
+        double lng = 13.405;
+        for (int i = 0; i < 500; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-4;
+            lng += (random.nextDouble() - 0.5) * 1e-4;
+            payloads.add(new LocationPayload(lat, lng, "Google_Pixel 7_unknown", 1700000000000L + i * 60000L));
+        }
+        byte[] json = new Gson().toJson(payloads).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = GzipCompression.compress(json);
+
+        assertArrayEquals(json, gunzip(compressed));
+        assertTrue(json.length + " -> " + compressed.length, compressed.length * 3 < json.length);
+    }
+
+    @Test
+    public void shrinksLongBacklogs() throws IOException {
+        for (int n : new int[]{1000, 10000}) {
+            LocationColumns points = TrajectoryCodecTest.randomWalk(n, new Random(n));
+            byte[] json = new Gson().toJson(TrajectoryCodecTest.payloads(points, "Google_Pixel 7_unknown"))
+                    .getBytes(StandardCharsets.UTF_8);
+            byte[] compressed = GzipCompression.compress(json);
+
+            assertArrayEquals(json, gunzip(compressed));
+            // About eightfold for this walk, dwells included
+            assertTrue(n + " fixes: " + json.length + " -> " + compressed.length, compressed.length * 6 < json.length);
+        }
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.youssef.anti_thief.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.youssef.anti_thief.DTO.LocationPayload;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH comparison of one upload page, 500 fixes, as a binary location batch
+ * and as the JSON list ApiService posts otherwise. The JSON side starts from
+ * the List&lt;LocationPayload&gt; the uploader builds, so building the list is
+ * not counted against it. Page sizes are printed once per trial;
+ * pageIsAFractionOfItsJson in LocationBatchCodecTest asserts them.
+ *
+ * Skipped in normal test runs; run with ./gradlew testDebugUnitTest -Pbenchmark
+ * --tests '*LocationBatchCodecBenchmark'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationBatchCodecBenchmark {
+
+    private static final Type TYPE = new TypeToken<List<LocationPayload>>() {}.getType();
+    private static final int PAGE_SIZE = 500;
+
+    private final Gson gson = new Gson();
+    private LocationColumns page;
+    private List<LocationPayload> payloads;
+    private byte[] batch;
+    private String json;
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        new Runner(new OptionsBuilder().include(LocationBatchCodecBenchmark.class.getName() + "\\.").build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        page = TrajectoryCodecTest.randomWalk(PAGE_SIZE, new Random(PAGE_SIZE));
+        page.setDeviceId("Google_Pixel 7_unknown");
+        payloads = TrajectoryCodecTest.payloads(page, page.getDeviceId());
+        batch = LocationBatchCodec.encode(page);
+        json = gson.toJson(payloads);
+        System.out.printf("%d fix page: batch %d bytes, json %d bytes%n", PAGE_SIZE, batch.length,
+                json.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Benchmark
+    public byte[] encodeBatch() {
+        return LocationBatchCodec.encode(page);
+    }
+
+    @Benchmark
+    public LocationColumns decodeBatch() throws IOException {
+        return LocationBatchCodec.decode(batch);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return gson.toJson(payloads).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<LocationPayload> decodeJson() {
+        return gson.fromJson(json, TYPE);
+    }
+}
@@ -0,0 +1,123 @@
+package com.youssef.anti_thief.utils;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocationBatchCodecTest {
+
+    @Test
+    public void roundTripsPointsAndDeviceId() throws IOException {
+        LocationColumns points = TrajectoryCodecTest.randomWalk(600, new Random(11));
+        points.setDeviceId("pixel-7 é");
+
+        LocationColumns decoded = LocationBatchCodec.decode(LocationBatchCodec.encode(points));
+        TrajectoryCodecTest.assertSamePoints(points, decoded);
+        assertEquals("pixel-7 é", decoded.getDeviceId());
+    }
+
+    @Test
+    public void pageIsAFractionOfItsJson() {
+        LocationColumns page = TrajectoryCodecTest.randomWalk(500, new Random(500));
+        page.setDeviceId("Google_Pixel 7_unknown");
+        int batch = LocationBatchCodec.encode(page).length;
+        int json = new Gson().toJson(TrajectoryCodecTest.payloads(page, page.getDeviceId()))
+                .getBytes(StandardCharsets.UTF_8).length;
+
+        // About 8 bytes a fix against about 110
+        assertTrue(batch + " vs " + json, batch * 12 < json);
+    }
+
+    @Test
+    public void headerLayout() {
+        LocationColumns points = new LocationColumns();
+        points.setDeviceId("abc");
+        points.addE7(1, 1700000000000L, 525200000, 134050000);
+        byte[] data = LocationBatchCodec.encode(points);
+
+        assertEquals('L', data[0]);
+        assertEquals('B', data[1]);
+        assertEquals(1, data[2]);
+        assertEquals(0, data[3]);
+        assertEquals(3, data[4]);
+        assertEquals("abc", new String(data, 5, 3, StandardCharsets.UTF_8));
+        assertEquals(1, data[8]);
+        // The trajectory block follows the point count directly
+        assertEquals((byte) 0xB7, data[9]);
+    }
+
+    @Test
+    public void missingDeviceIdDecodesAsNull() throws IOException {
+        LocationColumns points = TrajectoryCodecTest.randomWalk(3, new Random(12));
+        LocationColumns decoded = LocationBatchCodec.decode(LocationBatchCodec.encode(points));
+        assertNull(decoded.getDeviceId());
+        assertEquals(3, decoded.size());
+    }
+
+    @Test
+    public void emptyBatchRoundTrips() throws IOException {
+        LocationColumns points = new LocationColumns();
+        points.setDeviceId("device");
+        LocationColumns decoded = LocationBatchCodec.decode(LocationBatchCodec.encode(points));
+        assertEquals(0, decoded.size());
+        assertEquals("device", decoded.getDeviceId());
+    }
+
+    @Test
+    public void rejectsForeignData() {
+        assertRejected(new byte[]{'{', '"'}, "Not a location batch");
+        assertRejected("[{\"latitude\":1}]".getBytes(StandardCharsets.UTF_8), "Not a location batch");
+    }
+
+    @Test
+    public void rejectsUnknownVersion() {
+        byte[] data = LocationBatchCodec.encode(TrajectoryCodecTest.randomWalk(3, new Random(13)));
+        data[2] = 2;
+        assertRejected(data, "version");
+    }
+
+    @Test
+    public void rejectsPointCountMismatch() {
+        LocationColumns points = TrajectoryCodecTest.randomWalk(3, new Random(14));
+        points.setDeviceId("d");
+        byte[] data = LocationBatchCodec.encode(points);
+        // magic, version, flags, id length 1, "d", then the count
+        data[6] = 4;
+        assertRejected(data, "declares 4 points");
+    }
+
+    @Test
+    public void rejectsTruncatedHeader() {
+        LocationColumns points = new LocationColumns();
+        points.setDeviceId("device-id");
+        byte[] data = LocationBatchCodec.encode(points);
+        byte[] truncated = new byte[8];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertRejected(truncated, "Truncated");
+    }
+
+    @Test
+    public void rejectsCorruptPoints() {
+        byte[] data = LocationBatchCodec.encode(TrajectoryCodecTest.randomWalk(50, new Random(15)));
+        data[data.length - 10] ^= 0x40;
+        assertRejected(data, "checksum");
+    }
+
+    private static void assertRejected(byte[] data, String message) {
+        try {
+            LocationBatchCodec.decode(data);
+            fail("Decoded invalid batch");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(message));
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.youssef.anti_thief.utils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocationRingBufferTest {
+
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 36;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "ring.bin");
+    }
+
+    @Test
+    public void appendsAndReadsBack() throws IOException {
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ring.append(1000L * i, 52 + i, 13 + i));
+        }
+        ring.append(9000, 52.5, 13.5, 7, 420);
+
+        List<long[]> records = records(ring);
+        assertEquals(6, records.size());
+        assertEquals(0, records.get(0)[0]);
+        assertEquals(4000, records.get(4)[1]);
+        assertEquals(7, records.get(5)[2]);
+        assertEquals(420, records.get(5)[3]);
+        assertEquals(0, ring.getFirstTimestamp());
+        assertEquals(9000, ring.getLastTimestamp());
+    }
+
+    @Test
+    public void dropOldestOverwritesTheHeadOnWrap() throws IOException {
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(ring.append(1000L * i, 52, 13));
+        }
+
+        assertEquals(8, ring.size());
+        assertEquals(12, ring.getHeadSeq());
+        assertEquals(20, ring.getTailSeq());
+        List<long[]> records = records(ring);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(12 + i, records.get(i)[0]);
+            assertEquals(1000L * (12 + i), records.get(i)[1]);
+        }
+        // Unacknowledged records that were overwritten are skipped by the cursor
+        assertEquals(12, ring.getSyncCursor());
+        assertEquals(8, ring.unsyncedCount());
+    }
+
+    @Test
+    public void rejectNewestKeepsHistoryWhenFull() throws IOException {
+        LocationRingBuffer ring = open(4, LocationRingBuffer.OverflowPolicy.REJECT_NEWEST);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.append(1000L * i, 52, 13));
+        }
+        assertFalse(ring.append(5000, 52, 13));
+        assertEquals(0, ring.getHeadSeq());
+        assertEquals(3000, ring.getLastTimestamp());
+
+        ring.expireBefore(1000);
+        assertTrue(ring.append(5000, 52, 13));
+    }
+
+    @Test
+    public void timeRangesAreFoundAcrossTheWrap() throws IOException {
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 13; i++) {
+            ring.append(1000L * i, 52, 13);
+        }
+
+        assertEquals(5, ring.seqAtOrAfter(0));
+        assertEquals(7, ring.seqAtOrAfter(6500));
+        assertEquals(13, ring.seqAtOrAfter(60000));
+        List<Long> seqs = new ArrayList<>();
+        ring.forEachBetween(7000, 10000, (seq, timestamp, latitude, longitude, count, spanSeconds) -> seqs.add(seq));
+        assertEquals(List.of(7L, 8L, 9L), seqs);
+    }
+
+    @Test
+    public void expiryAndAcknowledgementOnlyMovePointers() throws IOException {
+        LocationRingBuffer ring = open(16, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 10; i++) {
+            ring.append(1000L * i, 52, 13);
+        }
+        ring.acknowledgeThrough(5);
+        assertEquals(6, ring.getSyncCursor());
+        assertEquals(6000, ring.getOldestUnsyncedTimestamp());
+        // Never moves backwards, never passes the tail
+        ring.acknowledgeThrough(2);
+        assertEquals(6, ring.getSyncCursor());
+        ring.acknowledgeThrough(100);
+        assertEquals(10, ring.getSyncCursor());
+        assertEquals(0, ring.getOldestUnsyncedTimestamp());
+
+        assertEquals(3, ring.expireBefore(3000));
+        assertEquals(0, ring.expireBefore(3000));
+        assertEquals(7, ring.size());
+    }
+
+    @Test
+    public void reopenKeepsRecordsAndCursor() throws IOException {
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 11; i++) {
+            ring.append(1000L * i, 52 + i, 13);
+        }
+        ring.acknowledgeThrough(6);
+
+        LocationRingBuffer reopened = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertEquals(3, reopened.getHeadSeq());
+        assertEquals(11, reopened.getTailSeq());
+        assertEquals(7, reopened.getSyncCursor());
+        assertEquals(10000, reopened.getLastTimestamp());
+    }
+
+    @Test
+    public void tornTailRecordsAreDroppedOnOpen() throws IOException {
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 10; i++) {
+            ring.append(1000L * i, 52, 13);
+        }
+        ring.acknowledgeThrough(9);
+
+        // The last two appends died halfway: their bytes no longer match their checksums
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(HEADER_SIZE + (9 % 8) * RECORD_SIZE + 8);
+            raf.writeDouble(48.0);
+            raf.seek(HEADER_SIZE + (8 % 8) * RECORD_SIZE);
+            raf.writeLong(123);
+        }
+
+        LocationRingBuffer reopened = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertEquals(8, reopened.getTailSeq());
+        assertEquals(2, reopened.getHeadSeq());
+        assertEquals(7000, reopened.getLastTimestamp());
+        // The cursor cannot point past records that are gone
+        assertEquals(8, reopened.getSyncCursor());
+        assertTrue(reopened.append(8000, 52, 13));
+    }
+
+    @Test
+    public void migratesVersion1Records() throws IOException {
+        // v1: 28-byte records of timestamp, latitude, longitude and CRC
+        int v1Capacity = 8;
+        int v1RecordSize = 28;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(HEADER_SIZE + (long) v1Capacity * v1RecordSize);
+            raf.writeInt(0x4C4F4352);
+            raf.writeInt(1);
+            raf.writeInt(v1Capacity);
+            raf.writeInt(v1RecordSize);
+            // head 6, tail 12 (wrapped), cursor 9
+            raf.writeLong(6);
+            raf.writeLong(12);
+            raf.writeLong(9);
+            for (long seq = 6; seq < 12; seq++) {
+                raf.seek(HEADER_SIZE + (seq % v1Capacity) * v1RecordSize);
+                raf.writeLong(1000 * seq);
+                raf.writeDouble(52 + seq);
+                raf.writeDouble(13 + seq);
+                raf.writeInt(0);
+            }
+        }
+
+        LocationRingBuffer ring = open(16, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertEquals(HEADER_SIZE + 16L * RECORD_SIZE, file.length());
+        List<long[]> records = records(ring);
+        assertEquals(6, records.size());
+        for (int i = 0; i < 6; i++) {
+            // Renumbered from zero, plain fixes
+            assertEquals(i, records.get(i)[0]);
+            assertEquals(1000L * (6 + i), records.get(i)[1]);
+            assertEquals(1, records.get(i)[2]);
+            assertEquals(0, records.get(i)[3]);
+        }
+        double[] latitude = new double[1];
+        ring.forEach(0, 1, (seq, timestamp, lat, lng, count, spanSeconds) -> latitude[0] = lat);
+        assertEquals(58, latitude[0], 0);
+        // The three acknowledged records stay acknowledged
+        assertEquals(3, ring.getSyncCursor());
+    }
+
+    @Test
+    public void capacityChangeKeepsNewestRecords() throws IOException {
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 8; i++) {
+            ring.append(1000L * i, 52, 13, i + 1, i);
+        }
+        ring.acknowledgeThrough(1);
+
+        LocationRingBuffer smaller = open(4, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        List<long[]> records = records(smaller);
+        assertEquals(4, records.size());
+        assertEquals(4000, records.get(0)[1]);
+        assertEquals(8, records.get(3)[2]);
+        assertEquals(7, records.get(3)[3]);
+    }
+
+    @Test
+    public void invalidHeaderStartsANewRing() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(4096);
+            raf.writeInt(0xDEADBEEF);
+        }
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertTrue(ring.isEmpty());
+        assertEquals(HEADER_SIZE + 8L * RECORD_SIZE, file.length());
+    }
+
+    @Test
+    public void sideRecordSurvivesReopenAndClear() throws IOException {
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertNull(ring.readSideRecord());
+        ring.writeSideRecord(new byte[]{1, 2, 3});
+        ring.writeSideRecord(new byte[]{4, 5});
+        ring.commit();
+
+        LocationRingBuffer reopened = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertArrayEquals(new byte[]{4, 5}, reopened.readSideRecord());
+        reopened.clear();
+        assertNull(reopened.readSideRecord());
+    }
+
+    @Test
+    public void tornSideRecordFallsBackToThePreviousOne() throws IOException {
+        LocationRingBuffer ring = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        ring.writeSideRecord(new byte[]{1, 2, 3});
+        ring.writeSideRecord(new byte[]{4, 5, 6});
+        ring.commit();
+
+        // Corrupt the payload of the newer slot, as a write cut short would
+        try (RandomAccessFile raf = new RandomAccessFile(new File(file.getPath() + ".side"), "rw")) {
+            raf.seek(16);
+            raf.write(9);
+        }
+        LocationRingBuffer reopened = open(8, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertArrayEquals(new byte[]{1, 2, 3}, reopened.readSideRecord());
+    }
+
+    private LocationRingBuffer open(int capacity, LocationRingBuffer.OverflowPolicy policy) throws IOException {
+        return new LocationRingBuffer(file, capacity, policy);
+    }
+
+    /**
+     * Every retained record as {seq, timestamp, count, spanSeconds}.
+     */
+    private static List<long[]> records(LocationRingBuffer ring) {
+        List<long[]> records = new ArrayList<>();
+        ring.forEach((seq, timestamp, latitude, longitude, count, spanSeconds) ->
+                records.add(new long[]{seq, timestamp, count, spanSeconds}));
+        return records;
+    }
+}
@@ -0,0 +1,180 @@
+package com.youssef.anti_thief.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH comparison of the memory-mapped ring against the JSON list the cache
+ * used to keep in SharedPreferences, both holding a full retention window.
+ * The JSON side keeps its string in memory, so it leaves out the XML write
+ * SharedPreferences did on top, and understates the old cost.
+ *
+ * Skipped in normal test runs; run with ./gradlew testDebugUnitTest -Pbenchmark
+ * --tests '*LocationStoreBenchmark'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationStoreBenchmark {
+
+    private static final int RETAINED = LocationRingBuffer.DEFAULT_CAPACITY;
+    private static final long MINUTE = 60 * 1000L;
+
+    private File dir;
+    private LocationRingBuffer ring;
+    private LegacyJsonLocationCache legacy;
+    private long now;
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        new Runner(new OptionsBuilder().include(LocationStoreBenchmark.class.getName() + "\\.").build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ring-benchmark").toFile();
+        ring = new LocationRingBuffer(new File(dir, "ring.bin"), RETAINED, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        // As TrackingService configures it
+        ring.setCommitPolicy(10, 10 * MINUTE);
+        legacy = new LegacyJsonLocationCache();
+        for (int i = 0; i < RETAINED; i++) {
+            now = i * MINUTE;
+            ring.append(now, 52.52 + i * 1e-5, 13.405 + i * 1e-5);
+            legacy.add(new LegacyJsonLocationCache.CachedLocation(52.52 + i * 1e-5, 13.405 + i * 1e-5, "device", now));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ring.commit();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public boolean appendRing() {
+        now += MINUTE;
+        return ring.append(now, 52.52, 13.405);
+    }
+
+    @Benchmark
+    public void appendJson() {
+        now += MINUTE;
+        // Drops the oldest as well, so both stores stay at a full window
+        legacy.add(new LegacyJsonLocationCache.CachedLocation(52.52, 13.405, "device", now));
+        legacy.removeOldest();
+    }
+
+    @Benchmark
+    public int expireNothingRing() {
+        return ring.expireBefore(0);
+    }
+
+    @Benchmark
+    public void expireNothingJson() {
+        legacy.clearOlderThan(0);
+    }
+
+    @Benchmark
+    public void readAllRing(Blackhole blackhole) {
+        ring.forEach((seq, timestamp, latitude, longitude, count, spanSeconds) -> blackhole.consume(latitude));
+    }
+
+    @Benchmark
+    public void readAllJson(Blackhole blackhole) {
+        for (LegacyJsonLocationCache.CachedLocation location : legacy.getAllLocations()) {
+            blackhole.consume(location.latitude);
+        }
+    }
+
+    /**
+     * The pre-ring LocationCache: the whole history as one JSON string,
+     * parsed and rewritten on every change.
+     */
+    static class LegacyJsonLocationCache {
+
+        private static final Type TYPE = new TypeToken<List<CachedLocation>>() {}.getType();
+
+        private final Gson gson = new Gson();
+        private String json;
+
+        List<CachedLocation> getAllLocations() {
+            if (json == null) {
+                return new ArrayList<>();
+            }
+            List<CachedLocation> locations = gson.fromJson(json, TYPE);
+            return locations != null ? locations : new ArrayList<>();
+        }
+
+        void add(CachedLocation location) {
+            List<CachedLocation> locations = getAllLocations();
+            locations.add(location);
+            json = gson.toJson(locations);
+        }
+
+        void removeOldest() {
+            List<CachedLocation> locations = getAllLocations();
+            locations.remove(0);
+            json = gson.toJson(locations);
+        }
+
+        void clearOlderThan(long cutoffTime) {
+            List<CachedLocation> locations = getAllLocations();
+            Iterator<CachedLocation> iterator = locations.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().timestamp < cutoffTime) {
+                    iterator.remove();
+                }
+            }
+            json = gson.toJson(locations);
+        }
+
+        static class CachedLocation {
+            double latitude;
+            double longitude;
+            String deviceId;
+            long timestamp;
+
+            CachedLocation(double latitude, double longitude, String deviceId, long timestamp) {
+                this.latitude = latitude;
+                this.longitude = longitude;
+                this.deviceId = deviceId;
+                this.timestamp = timestamp;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.youssef.anti_thief.utils;
+
+import com.youssef.anti_thief.TestContext;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SealedEnvelopeTest {
+
+    private static final String KEY = "sealed envelope test key";
+    private static final long TIMESTAMP = 1700000000123L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SecretKey key;
+
+    @Before
+    public void setUp() throws GeneralSecurityException {
+        new TestContext(folder.getRoot()).configure("http://localhost/", KEY, "api-key");
+        // The server derives the key the same way AESEncryption does
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(KEY.getBytes(StandardCharsets.UTF_8));
+        key = new SecretKeySpec(digest, "AES");
+    }
+
+    @Test
+    public void sealsAndOpens() throws Exception {
+        byte[] plaintext = "[{\"latitude\":52.52}]".getBytes(StandardCharsets.UTF_8);
+        byte[] envelope = SealedEnvelope.seal("pixel-7", TIMESTAMP, SealedEnvelope.FLAG_GZIP, plaintext);
+
+        // 14-byte header, the device id, then IV, ciphertext and tag
+        assertEquals(14 + 7 + AESEncryption.encryptedSize(plaintext.length), envelope.length);
+        SealedEnvelope.Contents contents = SealedEnvelope.open(key, envelope);
+        assertEquals("pixel-7", contents.deviceId);
+        assertEquals(TIMESTAMP, contents.timestamp);
+        assertEquals(SealedEnvelope.FLAG_GZIP, contents.flags);
+        assertArrayEquals(plaintext, contents.plaintext);
+    }
+
+    @Test
+    public void missingDeviceIdAndEmptyPlaintext() throws Exception {
+        SealedEnvelope.Contents contents = SealedEnvelope.open(key, SealedEnvelope.seal(null, TIMESTAMP, 0, new byte[0]));
+        assertNull(contents.deviceId);
+        assertEquals(0, contents.plaintext.length);
+    }
+
+    @Test
+    public void cleartextHeaderIsAuthenticated() throws Exception {
+        byte[] envelope = SealedEnvelope.seal("device-a", TIMESTAMP, SealedEnvelope.FLAG_BINARY_BATCH, new byte[64]);
+
+        byte[] flags = envelope.clone();
+        flags[3] = SealedEnvelope.FLAG_GZIP;
+        assertBadTag(flags);
+
+        byte[] timestamp = envelope.clone();
+        timestamp[11] ^= 1;
+        assertBadTag(timestamp);
+
+        byte[] deviceId = envelope.clone();
+        deviceId[14] = 'x';
+        assertBadTag(deviceId);
+
+        byte[] ciphertext = envelope.clone();
+        ciphertext[ciphertext.length - 20] ^= 1;
+        assertBadTag(ciphertext);
+    }
+
+    @Test
+    public void wrongKeyIsRejected() throws Exception {
+        byte[] envelope = SealedEnvelope.seal("device-a", TIMESTAMP, 0, new byte[10]);
+        byte[] other = MessageDigest.getInstance("SHA-256").digest("other".getBytes(StandardCharsets.UTF_8));
+        try {
+            SealedEnvelope.open(new SecretKeySpec(other, "AES"), envelope);
+            fail("Opened with the wrong key");
+        } catch (AEADBadTagException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsBadFraming() throws Exception {
+        assertRejected(new byte[]{'S', 'E', 1}, "Not a sealed envelope");
+        assertRejected("{\"data\":\"abc\",\"format\":\"x\"}".getBytes(StandardCharsets.UTF_8), "Not a sealed envelope");
+
+        byte[] envelope = SealedEnvelope.seal("device-a", TIMESTAMP, 0, new byte[10]);
+        byte[] version = envelope.clone();
+        version[2] = 2;
+        assertRejected(version, "version");
+
+        byte[] idLength = envelope.clone();
+        idLength[12] = 0x7F;
+        assertRejected(idLength, "Truncated");
+    }
+
+    private void assertBadTag(byte[] envelope) throws IOException {
+        try {
+            SealedEnvelope.open(key, envelope);
+            fail("Opened a tampered envelope");
+        } catch (GeneralSecurityException expected) {
+            assertTrue(expected instanceof AEADBadTagException);
+        }
+    }
+
+    private void assertRejected(byte[] data, String message) throws GeneralSecurityException {
+        try {
+            SealedEnvelope.open(key, data);
+            fail("Opened invalid framing");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(message));
+        }
+    }
+}
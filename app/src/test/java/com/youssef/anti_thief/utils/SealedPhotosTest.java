@@ -0,0 +1,111 @@
+package com.youssef.anti_thief.utils;
+
+import com.youssef.anti_thief.TestContext;
+
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SealedPhotosTest {
+
+    private static final String KEY = "0f1e2d3c4b5a69788796a5b4c3d2e1f00f1e2d3c4b5a69788796a5b4c3d2e1f0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+    private byte[] jpeg;
+
+    @Before
+    public void setUp() {
+        context = new TestContext(folder.getRoot());
+        // Several segments' worth of photo
+        jpeg = new byte[3 * SegmentedAesGcm.DEFAULT_SEGMENT_SIZE + 1000];
+        new Random(3).nextBytes(jpeg);
+    }
+
+    @Test
+    public void photosAreSealedAtRestWithAKey() throws IOException {
+        context.configure("http://localhost/", KEY, "api-key");
+        File photo = new File(SealedPhotos.save(folder.getRoot(), "back_1.jpg", jpeg));
+
+        assertTrue(SealedPhotos.isSealed(photo));
+        assertEquals("back_1.jpg", SealedPhotos.plainName(photo));
+        assertFalse(new File(folder.getRoot(), "back_1.jpg").exists());
+        byte[] stored = Files.readAllBytes(photo.toPath());
+        assertEquals(SegmentedAesGcm.ciphertextSize(jpeg.length, SegmentedAesGcm.DEFAULT_SEGMENT_SIZE), stored.length);
+        assertFalse(Arrays.equals(jpeg, Arrays.copyOfRange(stored, SegmentedAesGcm.HEADER_SIZE,
+                SegmentedAesGcm.HEADER_SIZE + jpeg.length)));
+        assertArrayEquals(jpeg, read(SealedPhotos.open(photo)));
+    }
+
+    @Test
+    public void photosStayPlainWithoutAKey() throws IOException {
+        context.configure("http://localhost/", "", "api-key");
+        File photo = new File(SealedPhotos.save(folder.getRoot(), "front_1.jpg", jpeg));
+
+        assertFalse(SealedPhotos.isSealed(photo));
+        assertArrayEquals(jpeg, Files.readAllBytes(photo.toPath()));
+    }
+
+    @Test
+    public void archiveHoldsTheDecryptedPhoto() throws IOException {
+        context.configure("http://localhost/", KEY, "api-key");
+        File photo = new File(SealedPhotos.save(folder.getRoot(), "back_1.jpg", jpeg));
+        File zip = new File(folder.getRoot(), "alert.zip");
+
+        try (EvidenceArchive archive = new EvidenceArchive(zip, "zip-password")) {
+            archive.addPhoto(photo);
+            assertEquals(Collections.singletonList("back_1.jpg"), archive.getEntries());
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip, "zip-password".toCharArray())) {
+            FileHeader header = zipFile.getFileHeader("back_1.jpg");
+            assertEquals(jpeg.length, header.getUncompressedSize());
+            assertArrayEquals(jpeg, read(zipFile.getInputStream(header)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void tamperedPhotoFailsTheArchive() throws IOException {
+        context.configure("http://localhost/", KEY, "api-key");
+        File photo = new File(SealedPhotos.save(folder.getRoot(), "back_1.jpg", jpeg));
+        byte[] stored = Files.readAllBytes(photo.toPath());
+        stored[stored.length / 2] ^= 1;
+        Files.write(photo.toPath(), stored);
+
+        try (EvidenceArchive archive = new EvidenceArchive(new File(folder.getRoot(), "alert.zip"), "zip-password")) {
+            archive.addPhoto(photo);
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.youssef.anti_thief.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class SegmentedAesGcmTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+    private static final int SEGMENT = 100;
+    private static final int SEALED_SEGMENT = SEGMENT + SegmentedAesGcm.TAG_SIZE;
+
+    private final Random random = new Random(22);
+
+    @Test
+    public void streamsAndBuffersRoundTrip() throws Exception {
+        for (int size : new int[]{0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 3 * SEGMENT, 1234}) {
+            byte[] plaintext = randomBytes(size);
+            byte[] streamed = encryptStream(plaintext, 1 + random.nextInt(150));
+            byte[] buffered = encryptBuffer(plaintext);
+
+            assertEquals(SegmentedAesGcm.ciphertextSize(size, SEGMENT), streamed.length);
+            assertEquals(streamed.length, buffered.length);
+            // Either form decrypts through either API
+            assertArrayEquals("size " + size, plaintext, decryptStream(buffered));
+            assertArrayEquals("size " + size, plaintext, decryptSegments(streamed));
+        }
+    }
+
+    @Test
+    public void segmentsDecryptInAnyOrder() throws Exception {
+        byte[] plaintext = randomBytes(5 * SEGMENT + 17);
+        SegmentedAesGcm.SegmentReader reader = new SegmentedAesGcm.SegmentReader(KEY, ByteBuffer.wrap(encryptStream(plaintext, 64)));
+        assertEquals(6, reader.getSegmentCount());
+        assertEquals(plaintext.length, reader.getPlaintextSize());
+
+        ByteBuffer out = ByteBuffer.allocate(SEGMENT);
+        for (int i = reader.getSegmentCount() - 1; i >= 0; i--) {
+            out.clear();
+            int length = reader.decryptSegment(i, out);
+            assertArrayEquals(Arrays.copyOfRange(plaintext, i * SEGMENT, i * SEGMENT + length),
+                    Arrays.copyOf(out.array(), length));
+        }
+    }
+
+    @Test
+    public void everyStreamGetsItsOwnKeyAndNonces() throws Exception {
+        byte[] plaintext = randomBytes(2 * SEGMENT);
+        byte[] first = encryptStream(plaintext, SEGMENT);
+        byte[] second = encryptStream(plaintext, SEGMENT);
+
+        // Same key and plaintext, yet no segment repeats
+        assertFalse(Arrays.equals(body(first), body(second)));
+        byte[] spliced = first.clone();
+        System.arraycopy(second, SegmentedAesGcm.HEADER_SIZE, spliced, SegmentedAesGcm.HEADER_SIZE, SEALED_SEGMENT);
+        assertRejected(spliced);
+    }
+
+    @Test
+    public void rejectsReorderedSegments() throws Exception {
+        byte[] sealed = encryptStream(randomBytes(3 * SEGMENT + 5), SEGMENT);
+        byte[] swapped = sealed.clone();
+        int a = SegmentedAesGcm.HEADER_SIZE;
+        int b = a + SEALED_SEGMENT;
+        System.arraycopy(sealed, a, swapped, b, SEALED_SEGMENT);
+        System.arraycopy(sealed, b, swapped, a, SEALED_SEGMENT);
+        assertRejected(swapped);
+    }
+
+    @Test
+    public void rejectsTruncation() throws Exception {
+        byte[] sealed = encryptStream(randomBytes(3 * SEGMENT + 5), SEGMENT);
+        // Mid-segment, and at a segment boundary
+        assertRejected(Arrays.copyOf(sealed, sealed.length - 1));
+        assertRejected(Arrays.copyOf(sealed, SegmentedAesGcm.HEADER_SIZE + 2 * SEALED_SEGMENT));
+        assertRejected(Arrays.copyOf(sealed, SegmentedAesGcm.HEADER_SIZE));
+    }
+
+    @Test
+    public void rejectsStrippedFinalSegment() throws Exception {
+        // A full last segment: dropping it leaves whole segments only, so the
+        // previous one, sealed as not final, would otherwise pass as the end
+        byte[] sealed = encryptStream(randomBytes(3 * SEGMENT), SEGMENT);
+        assertEquals(SegmentedAesGcm.HEADER_SIZE + 3 * SEALED_SEGMENT, sealed.length);
+        assertRejected(Arrays.copyOf(sealed, sealed.length - SEALED_SEGMENT));
+
+        // Nor can a final segment be followed by more data
+        byte[] extended = Arrays.copyOf(sealed, sealed.length + SEALED_SEGMENT);
+        System.arraycopy(sealed, SegmentedAesGcm.HEADER_SIZE, extended, sealed.length, SEALED_SEGMENT);
+        assertRejected(extended);
+    }
+
+    @Test
+    public void rejectsTamperedHeaderAndBody() throws Exception {
+        byte[] sealed = encryptStream(randomBytes(2 * SEGMENT), SEGMENT);
+        for (int offset : new int[]{3, 20, 45, SegmentedAesGcm.HEADER_SIZE + 10, sealed.length - 1}) {
+            byte[] tampered = sealed.clone();
+            tampered[offset] ^= 1;
+            assertRejected(tampered);
+        }
+    }
+
+    @Test
+    public void rejectsWrongKey() throws Exception {
+        byte[] sealed = encryptStream(randomBytes(10), SEGMENT);
+        byte[] other = new byte[32];
+        other[0] = 1;
+        try {
+            drain(SegmentedAesGcm.newDecryptingStream(new SecretKeySpec(other, "AES"), new ByteArrayInputStream(sealed)));
+            fail("Decrypted with the wrong key");
+        } catch (IOException expected) {
+        }
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] encryptStream(byte[] plaintext, int writeSize) throws GeneralSecurityException, IOException {
+        ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        try (OutputStream out = SegmentedAesGcm.newEncryptingStream(KEY, sealed, SEGMENT)) {
+            for (int off = 0; off < plaintext.length; off += writeSize) {
+                out.write(plaintext, off, Math.min(writeSize, plaintext.length - off));
+            }
+        }
+        return sealed.toByteArray();
+    }
+
+    private static byte[] encryptBuffer(byte[] plaintext) throws GeneralSecurityException {
+        ByteBuffer out = ByteBuffer.allocateDirect((int) SegmentedAesGcm.ciphertextSize(plaintext.length, SEGMENT));
+        SegmentedAesGcm.encrypt(KEY, ByteBuffer.wrap(plaintext), out, SEGMENT);
+        assertFalse(out.hasRemaining());
+        out.flip();
+        byte[] sealed = new byte[out.remaining()];
+        out.get(sealed);
+        return sealed;
+    }
+
+    private static byte[] decryptStream(byte[] sealed) throws GeneralSecurityException, IOException {
+        return drain(SegmentedAesGcm.newDecryptingStream(KEY, new ByteArrayInputStream(sealed)));
+    }
+
+    private static byte[] decryptSegments(byte[] sealed) throws GeneralSecurityException, IOException {
+        SegmentedAesGcm.SegmentReader reader = new SegmentedAesGcm.SegmentReader(KEY, ByteBuffer.wrap(sealed));
+        ByteBuffer out = ByteBuffer.allocate((int) reader.getPlaintextSize());
+        for (int i = 0; i < reader.getSegmentCount(); i++) {
+            reader.decryptSegment(i, out);
+        }
+        return out.array();
+    }
+
+    private static byte[] drain(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[37];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] body(byte[] sealed) {
+        return Arrays.copyOfRange(sealed, SegmentedAesGcm.HEADER_SIZE, sealed.length);
+    }
+
+    /**
+     * Checks both the stream and the random-access reader refuse the data.
+     */
+    private static void assertRejected(byte[] sealed) throws GeneralSecurityException {
+        try {
+            decryptStream(sealed);
+            fail("Stream accepted tampered data");
+        } catch (IOException expected) {
+        }
+        try {
+            decryptSegments(sealed);
+            fail("Reader accepted tampered data");
+        } catch (AEADBadTagException | IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.youssef.anti_thief.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.youssef.anti_thief.DTO.LocationPayload;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH comparison of the trajectory block codec against the two other forms
+ * the same history takes: 36-byte LocationRingBuffer records, which is how it
+ * is stored, and the JSON list the plain upload sends. The trail is the
+ * random walk TrajectoryCodecTest uses, dwells included. Bytes per fix of each
+ * form are printed once per trial; costsAFractionOfRingRecordsAndJson in
+ * TrajectoryCodecTest asserts them.
+ *
+ * Skipped in normal test runs; run with ./gradlew testDebugUnitTest -Pbenchmark
+ * --tests '*TrajectoryCodecBenchmark'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrajectoryCodecBenchmark {
+
+    private static final Type TYPE = new TypeToken<List<LocationPayload>>() {}.getType();
+    private static final int RING_RECORD_SIZE = 36;
+
+    @Param({"1000", "10000"})
+    public int fixes;
+
+    private final Gson gson = new Gson();
+    private final LocationColumns decoded = new LocationColumns();
+    private File dir;
+    private LocationRingBuffer ring;
+    private LocationColumns points;
+    private byte[] encoded;
+    private String json;
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        new Runner(new OptionsBuilder().include(TrajectoryCodecBenchmark.class.getName() + "\\.").build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        points = TrajectoryCodecTest.randomWalk(fixes, new Random(fixes));
+        encoded = TrajectoryCodec.encode(points);
+        json = gson.toJson(TrajectoryCodecTest.payloads(points, "Google_Pixel 7_unknown"));
+
+        dir = Files.createTempDirectory("codec-benchmark").toFile();
+        ring = new LocationRingBuffer(new File(dir, "ring.bin"), fixes, LocationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < fixes; i++) {
+            ring.append(points.getTimestamp(i), points.getLatitude(i), points.getLongitude(i),
+                    points.getCount(i), points.getSpanSeconds(i));
+        }
+
+        System.out.printf("%d fixes, bytes per fix: codec %.1f, ring %d, json %.1f%n", fixes,
+                (double) encoded.length / fixes, RING_RECORD_SIZE,
+                (double) json.getBytes(StandardCharsets.UTF_8).length / fixes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ring.commit();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public byte[] encodeCodec() {
+        return TrajectoryCodec.encode(points);
+    }
+
+    @Benchmark
+    public int decodeCodec() throws IOException {
+        decoded.clear();
+        TrajectoryCodec.decode(encoded, decoded);
+        return decoded.size();
+    }
+
+    @Benchmark
+    public int readRing() {
+        decoded.clear();
+        ring.forEach(decoded::add);
+        return decoded.size();
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return gson.toJson(TrajectoryCodecTest.payloads(points, "Google_Pixel 7_unknown"));
+    }
+
+    @Benchmark
+    public List<LocationPayload> decodeJson() {
+        return gson.fromJson(json, TYPE);
+    }
+}
@@ -0,0 +1,211 @@
+package com.youssef.anti_thief.utils;
+
+import com.google.gson.Gson;
+import com.youssef.anti_thief.DTO.LocationPayload;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TrajectoryCodecTest {
+
+    @Test
+    public void roundTripsAcrossBlocks() throws IOException {
+        LocationColumns points = randomWalk(1000, new Random(7));
+        byte[] data = TrajectoryCodec.encode(points, 64);
+
+        LocationColumns decoded = new LocationColumns();
+        TrajectoryCodec.decode(data, decoded);
+        assertSamePoints(points, decoded);
+        // A slow walk costs a few bytes per fix
+        assertTrue(data.length + " bytes", data.length < points.size() * 12);
+    }
+
+    @Test
+    public void roundTripsExtremeValues() throws IOException {
+        LocationColumns points = new LocationColumns();
+        points.addE7(0, 0, 900000000, -1800000000);
+        points.addE7(1L << 40, Long.MAX_VALUE / 4, -900000000, 1800000000);
+        points.addE7((1L << 40) + 1, 1, 0, 0);
+
+        LocationColumns decoded = new LocationColumns();
+        TrajectoryCodec.decode(TrajectoryCodec.encode(points), decoded);
+        assertSamePoints(points, decoded);
+    }
+
+    @Test
+    public void emptyInputEncodesToNothing() throws IOException {
+        byte[] data = TrajectoryCodec.encode(new LocationColumns());
+        assertEquals(0, data.length);
+        LocationColumns decoded = new LocationColumns();
+        TrajectoryCodec.decode(data, decoded);
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    public void dwellBitCarriesCountAndSpan() throws IOException {
+        LocationColumns points = new LocationColumns();
+        points.addE7(10, 1000, 525200000, 134050000);
+        points.addE7(11, 61000, 525200100, 134050100, 30, 1800);
+        points.addE7(12, 1861000, 525200200, 134050200);
+
+        LocationColumns decoded = new LocationColumns();
+        TrajectoryCodec.decode(TrajectoryCodec.encode(points), decoded);
+        assertSamePoints(points, decoded);
+        assertTrue(decoded.isDwell(1));
+        assertEquals(30, decoded.getCount(1));
+        assertEquals(1800, decoded.getSpanSeconds(1));
+        assertEquals(1, decoded.getCount(2));
+        assertEquals(0, decoded.getSpanSeconds(2));
+    }
+
+    @Test
+    public void costsAFractionOfRingRecordsAndJson() {
+        for (int n : new int[]{1000, 10000}) {
+            LocationColumns points = randomWalk(n, new Random(n));
+            int codec = TrajectoryCodec.encode(points).length;
+            int json = new Gson().toJson(payloads(points, "Google_Pixel 7_unknown")).getBytes(StandardCharsets.UTF_8).length;
+
+            // Ring records are 36 bytes; the walk moves up to ~11 m and 90 s a fix
+            String sizes = n + " fixes: " + codec + " bytes vs " + 36 * n + " ring, " + json + " JSON";
+            assertTrue(sizes, codec * 4 < 36 * n);
+            assertTrue(sizes, codec * 12 < json);
+        }
+    }
+
+    @Test
+    public void plainFixesPayNothingForDwellSupport() {
+        LocationColumns plain = new LocationColumns();
+        LocationColumns withDwell = new LocationColumns();
+        for (int i = 0; i < 100; i++) {
+            plain.addE7(i, i * 60000L, 525200000 + i, 134050000 + i);
+            if (i == 50) {
+                withDwell.addE7(i, i * 60000L, 525200000 + i, 134050000 + i, 5, 240);
+            } else {
+                withDwell.addE7(i, i * 60000L, 525200000 + i, 134050000 + i);
+            }
+        }
+        // One count byte and two span bytes
+        assertEquals(TrajectoryCodec.encode(plain).length + 3, TrajectoryCodec.encode(withDwell).length);
+    }
+
+    @Test
+    public void rejectsCorruptBlock() {
+        byte[] data = TrajectoryCodec.encode(randomWalk(50, new Random(1)));
+        data[data.length / 2] ^= 0x10;
+        assertRejected(data, "checksum");
+    }
+
+    @Test
+    public void rejectsWrongMagicAndVersion() {
+        byte[] data = TrajectoryCodec.encode(randomWalk(5, new Random(2)));
+        byte[] badMagic = data.clone();
+        badMagic[0] = 0;
+        assertRejected(badMagic, "Not a trajectory block");
+        byte[] badVersion = data.clone();
+        badVersion[1] = 9;
+        assertRejected(badVersion, "version");
+    }
+
+    @Test
+    public void rejectsTruncatedBlock() {
+        byte[] data = TrajectoryCodec.encode(randomWalk(20, new Random(3)));
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertRejected(truncated, "Truncated");
+    }
+
+    @Test
+    public void corruptionIsConfinedToItsBlock() throws IOException {
+        LocationColumns points = randomWalk(20, new Random(4));
+        byte[] data = TrajectoryCodec.encode(points, 10);
+        // Damage the last byte of the second block's CRC
+        data[data.length - 1] ^= 1;
+
+        LocationColumns decoded = new LocationColumns();
+        int next = TrajectoryCodec.decodeBlock(data, 0, decoded);
+        assertEquals(10, decoded.size());
+        assertEquals(points.getTimestamp(9), decoded.getTimestamp(9));
+        try {
+            TrajectoryCodec.decodeBlock(data, next, decoded);
+            fail("Corrupt second block decoded");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("checksum"));
+        }
+    }
+
+    @Test
+    public void zigzagRoundTrips() {
+        for (long value : new long[]{0, 1, -1, 63, -64, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertEquals(value, TrajectoryCodec.unzigzag(TrajectoryCodec.zigzag(value)));
+        }
+        assertEquals(1, TrajectoryCodec.zigzag(-1));
+        assertEquals(2, TrajectoryCodec.zigzag(1));
+    }
+
+    static LocationColumns randomWalk(int n, Random random) {
+        LocationColumns points = new LocationColumns();
+        long seq = 100;
+        long timestamp = 1700000000000L;
+        int lat = 525200000;
+        int lng = 134050000;
+        for (int i = 0; i < n; i++) {
+            seq += 1 + random.nextInt(3);
+            timestamp += 30000 + random.nextInt(60000);
+            lat += random.nextInt(2001) - 1000;
+            lng += random.nextInt(2001) - 1000;
+            if (random.nextInt(20) == 0) {
+                points.addE7(seq, timestamp, lat, lng, 2 + random.nextInt(100), random.nextInt(7200));
+            } else {
+                points.addE7(seq, timestamp, lat, lng);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * The points as the JSON upload sends them.
+     */
+    static List<LocationPayload> payloads(LocationColumns points, String deviceId) {
+        List<LocationPayload> payloads = new ArrayList<>(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            LocationPayload payload = new LocationPayload(points.getLatitude(i), points.getLongitude(i),
+                    deviceId, points.getTimestamp(i));
+            if (points.isDwell(i)) {
+                payload.dwellCount = points.getCount(i);
+                payload.dwellUntil = points.getEndTimestamp(i);
+            }
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    static void assertSamePoints(LocationColumns expected, LocationColumns actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getSeq(i), actual.getSeq(i));
+            assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+            assertEquals(expected.getLatitudeE7(i), actual.getLatitudeE7(i));
+            assertEquals(expected.getLongitudeE7(i), actual.getLongitudeE7(i));
+            assertEquals(expected.getCount(i), actual.getCount(i));
+            assertEquals(expected.getSpanSeconds(i), actual.getSpanSeconds(i));
+        }
+    }
+
+    private static void assertRejected(byte[] data, String message) {
+        try {
+            TrajectoryCodec.decode(data, new LocationColumns());
+            fail("Decoded invalid data");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(message));
+        }
+    }
+}
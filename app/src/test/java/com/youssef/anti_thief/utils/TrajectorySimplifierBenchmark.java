@@ -0,0 +1,71 @@
+package com.youssef.anti_thief.utils;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH cost of simplifying a walking trail of 1k and 10k fixes per tolerance.
+ * Points kept and the largest error are printed once per trial;
+ * toleranceTable in TrajectorySimplifierTest asserts them.
+ *
+ * Skipped in normal test runs; run with ./gradlew testDebugUnitTest -Pbenchmark
+ * --tests '*TrajectorySimplifierBenchmark'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrajectorySimplifierBenchmark {
+
+    private static final long MAX_GAP_MS = 5 * 60 * 1000L;
+
+    @Param({"1000", "10000"})
+    public int points;
+
+    @Param({"2", "5", "10", "20", "50"})
+    public double toleranceMeters;
+
+    private final LocationColumns simplified = new LocationColumns();
+    private LocationColumns trail;
+    private TrajectorySimplifier simplifier;
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        new Runner(new OptionsBuilder().include(TrajectorySimplifierBenchmark.class.getName() + "\\.").build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        trail = TrajectorySimplifierTest.walkingTrail(points, new Random(points));
+        simplifier = new TrajectorySimplifier(toleranceMeters, MAX_GAP_MS);
+        int kept = simplifier.simplify(trail, simplified);
+        System.out.printf("%d points, %.0f m: kept %d, max error %.2f m%n", points, toleranceMeters, kept,
+                TrajectorySimplifierTest.maxError(trail, simplified));
+    }
+
+    @Benchmark
+    public int simplify() {
+        return simplifier.simplify(trail, simplified);
+    }
+}
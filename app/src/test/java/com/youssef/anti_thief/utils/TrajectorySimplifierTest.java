@@ -0,0 +1,196 @@
+package com.youssef.anti_thief.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrajectorySimplifierTest {
+
+    private static final double EARTH_RADIUS_M = 6371000;
+    private static final double E7_TO_RADIANS = Math.PI / 180 / 1e7;
+    private static final long MINUTE = 60 * 1000L;
+    // About 1.1 m of latitude
+    private static final int METER_E7 = 90;
+
+    @Test
+    public void emptyInputKeepsNothing() {
+        LocationColumns simplified = new LocationColumns();
+        assertEquals(0, new TrajectorySimplifier(5, 5 * MINUTE).simplify(new LocationColumns(), simplified));
+    }
+
+    @Test
+    public void straightLineKeepsEndpoints() {
+        LocationColumns line = new LocationColumns();
+        line.setDeviceId("device");
+        for (int i = 0; i < 30; i++) {
+            line.addE7(i, i * 1000L, 520000000 + i * 10 * METER_E7, 130000000);
+        }
+        LocationColumns simplified = new LocationColumns();
+        new TrajectorySimplifier(5, 5 * MINUTE).simplify(line, simplified);
+
+        assertEquals(2, simplified.size());
+        assertEquals(0, simplified.getSeq(0));
+        assertEquals(29, simplified.getSeq(1));
+        assertEquals("device", simplified.getDeviceId());
+    }
+
+    @Test
+    public void cornerOutsideToleranceIsKept() {
+        LocationColumns path = new LocationColumns();
+        for (int i = 0; i <= 10; i++) {
+            path.addE7(i, i * 1000L, 520000000 + i * 10 * METER_E7, 130000000);
+        }
+        for (int i = 1; i <= 10; i++) {
+            path.addE7(10 + i, (10 + i) * 1000L, 520000000 + 100 * METER_E7, 130000000 + i * 10 * METER_E7);
+        }
+        LocationColumns simplified = new LocationColumns();
+        new TrajectorySimplifier(5, 5 * MINUTE).simplify(path, simplified);
+
+        assertEquals(3, simplified.size());
+        assertEquals(10, simplified.getSeq(1));
+    }
+
+    @Test
+    public void keptPointsAreAtMostMaxGapApart() {
+        LocationColumns line = new LocationColumns();
+        for (int i = 0; i < 360; i++) {
+            // One fix every 10 s for an hour, barely moving
+            line.addE7(i, i * 10 * 1000L, 520000000 + i, 130000000);
+        }
+        LocationColumns simplified = new LocationColumns();
+        new TrajectorySimplifier(5, 5 * MINUTE).simplify(line, simplified);
+
+        assertTrue(simplified.size() < line.size() / 10);
+        for (int i = 1; i < simplified.size(); i++) {
+            assertTrue(simplified.getTimestamp(i) - simplified.getTimestamp(i - 1) <= 5 * MINUTE);
+        }
+    }
+
+    @Test
+    public void dwellRecordsAreAlwaysKept() {
+        LocationColumns line = new LocationColumns();
+        for (int i = 0; i < 20; i++) {
+            if (i == 7) {
+                line.addE7(i, i * 1000L, 520000000 + i * METER_E7, 130000000, 12, 600);
+            } else {
+                line.addE7(i, i * 1000L, 520000000 + i * METER_E7, 130000000);
+            }
+        }
+        LocationColumns simplified = new LocationColumns();
+        new TrajectorySimplifier(5, 5 * MINUTE).simplify(line, simplified);
+
+        assertEquals(3, simplified.size());
+        assertEquals(7, simplified.getSeq(1));
+        assertEquals(12, simplified.getCount(1));
+        assertEquals(600, simplified.getSpanSeconds(1));
+    }
+
+    @Test
+    public void randomWalkStaysWithinTolerance() {
+        Random random = new Random(42);
+        LocationColumns walk = new LocationColumns();
+        int lat = 520000000;
+        int lng = 130000000;
+        for (int i = 0; i < 2000; i++) {
+            lat += random.nextInt(21 * METER_E7) - 10 * METER_E7;
+            lng += random.nextInt(21 * METER_E7) - 10 * METER_E7;
+            walk.addE7(i, i * 5000L, lat, lng);
+        }
+
+        for (double tolerance : new double[]{2, 5, 20}) {
+            LocationColumns simplified = new LocationColumns();
+            new TrajectorySimplifier(tolerance, 5 * MINUTE).simplify(walk, simplified);
+            assertTrue(simplified.size() < walk.size());
+            // Slack for the simplifier projecting around the first point only
+            assertTrue("tolerance " + tolerance, maxError(walk, simplified) <= tolerance + 0.5);
+        }
+    }
+
+    @Test
+    public void toleranceTable() {
+        // tolerance m, largest share of a 5 s walking trail kept (measured
+        // 0.52, 0.17-0.20, 0.085, 0.048 and 0.03); the 5 min gap caps it at 1 in 60
+        double[][] table = {
+                {2, 0.55},
+                {5, 0.22},
+                {10, 0.10},
+                {20, 0.06},
+                {50, 0.04},
+        };
+        for (int n : new int[]{1000, 10000}) {
+            LocationColumns trail = walkingTrail(n, new Random(n));
+            for (double[] row : table) {
+                LocationColumns simplified = new LocationColumns();
+                int kept = new TrajectorySimplifier(row[0], 5 * MINUTE).simplify(trail, simplified);
+                double error = maxError(trail, simplified);
+
+                String report = String.format("%d points, %.0f m: kept %d, max error %.2f m", n, row[0], kept, error);
+                assertTrue(report, kept <= row[1] * n);
+                assertTrue(report, error <= row[0] + 0.5);
+            }
+        }
+    }
+
+    /**
+     * A walk at about 1.4 m/s with a fix every 5 s, turning gradually, with a
+     * few meters of GPS noise on each fix.
+     */
+    static LocationColumns walkingTrail(int n, Random random) {
+        LocationColumns trail = new LocationColumns();
+        double north = 0;
+        double east = 0;
+        double heading = 0;
+        for (int i = 0; i < n; i++) {
+            heading += random.nextGaussian() * 0.2;
+            north += Math.cos(heading) * 7;
+            east += Math.sin(heading) * 7;
+            double lat = 52.52 + (north + random.nextGaussian() * 2) / 111195;
+            double lng = 13.405 + (east + random.nextGaussian() * 2) / (111195 * Math.cos(Math.toRadians(52.52)));
+            trail.add(i, 1700000000000L + i * 5000L, lat, lng);
+        }
+        return trail;
+    }
+
+    /**
+     * Largest distance in meters from a point of original to the simplified
+     * line, matching points by seq.
+     */
+    static double maxError(LocationColumns original, LocationColumns simplified) {
+        double worst = 0;
+        int k = 0;
+        for (int i = 0; i < original.size(); i++) {
+            while (k + 1 < simplified.size() && simplified.getSeq(k + 1) <= original.getSeq(i)) {
+                k++;
+            }
+            int next = Math.min(k + 1, simplified.size() - 1);
+            double cos = Math.cos(original.getLatitudeE7(i) * E7_TO_RADIANS);
+            worst = Math.max(worst, segmentDistance(
+                    x(original.getLongitudeE7(i), cos), y(original.getLatitudeE7(i)),
+                    x(simplified.getLongitudeE7(k), cos), y(simplified.getLatitudeE7(k)),
+                    x(simplified.getLongitudeE7(next), cos), y(simplified.getLatitudeE7(next))));
+        }
+        return worst;
+    }
+
+    private static double x(int lngE7, double cos) {
+        return lngE7 * E7_TO_RADIANS * cos * EARTH_RADIUS_M;
+    }
+
+    private static double y(int latE7) {
+        return latE7 * E7_TO_RADIANS * EARTH_RADIUS_M;
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
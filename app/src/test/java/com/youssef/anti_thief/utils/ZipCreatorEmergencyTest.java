@@ -0,0 +1,184 @@
+package com.youssef.anti_thief.utils;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.youssef.anti_thief.DTO.LocationPayload;
+import com.youssef.anti_thief.TestContext;
+import com.youssef.anti_thief.backend.FakeBackend;
+import com.youssef.anti_thief.service.ApiClient;
+
+import net.lingala.zip4j.ZipFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZipCreatorEmergencyTest {
+
+    private static final String DEVICE_ID = "test-device";
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+    private FakeBackend backend;
+    private LocationCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        backend = new FakeBackend(null, "api-key");
+        backend.start();
+        context = new TestContext(folder.getRoot());
+        context.configure(backend.url(), "", "api-key");
+        cache = new LocationCache(context);
+        cache.clearAll();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        backend.shutdown();
+    }
+
+    @Test
+    public void polylineFromBackendCoversTheLastDay() throws IOException {
+        // Every 20 minutes over the last 30 hours; only the last 24 belong on the map
+        long now = System.currentTimeMillis();
+        List<LocationPayload> sent = randomWalk(now - 30 * HOUR, now, 20 * 60 * 1000L);
+        Response<ResponseBody> response = ApiClient.getApiService().sendLocationBatch(sent).execute();
+        response.body().close();
+        assertEquals(200, response.code());
+
+        String zipPath = createZip();
+        String polyline = encodedPolylineOf(zipPath);
+        List<double[]> decoded = decodePolyline(polyline);
+        List<LocationPayload> lastDay = new ArrayList<>();
+        for (LocationPayload payload : sent) {
+            if (payload.timestamp >= System.currentTimeMillis() - 24 * HOUR) {
+                lastDay.add(payload);
+            }
+        }
+        // The oldest fix may slip out of the window between upload and fetch
+        assertTrue(decoded.size() + " of " + lastDay.size(), Math.abs(decoded.size() - lastDay.size()) <= 1);
+        int offset = lastDay.size() - decoded.size();
+        for (int i = 0; i < decoded.size(); i++) {
+            assertEquals(lastDay.get(i + offset).latitude, decoded.get(i)[0], 1e-5);
+            assertEquals(lastDay.get(i + offset).longitude, decoded.get(i)[1], 1e-5);
+        }
+        assertEquals(1, (int) backend.getRequestCounts().get("GET /api/locations/24h"));
+        // The map page gets the same polyline as a JavaScript string literal
+        assertTrue(entryText(zipPath, "location_map.html")
+                .contains("var encodedPolyline = '" + polyline.replace("\\", "\\\\") + "';"));
+    }
+
+    @Test
+    public void polylineFallsBackToCacheWhenBackendFails() throws IOException {
+        long now = System.currentTimeMillis();
+        List<LocationPayload> cached = randomWalk(now - 2 * HOUR, now, 60 * 1000L);
+        for (LocationPayload payload : cached) {
+            cache.addLocation(payload.timestamp, payload.latitude, payload.longitude, DEVICE_ID);
+        }
+        backend.failNext(1, 500);
+
+        List<double[]> decoded = decodePolyline(encodedPolylineOf(createZip()));
+        // Simplified, but the trail keeps its ends
+        assertTrue(decoded.size() > 1 && decoded.size() <= cached.size());
+        assertEquals(cached.get(0).latitude, decoded.get(0)[0], 1e-5);
+        LocationPayload last = cached.get(cached.size() - 1);
+        assertEquals(last.latitude, decoded.get(decoded.size() - 1)[0], 1e-5);
+        assertEquals(last.longitude, decoded.get(decoded.size() - 1)[1], 1e-5);
+        assertEquals(1, backend.getInjectedFailures());
+    }
+
+    @Test
+    public void emptyHistoryGivesEmptyPolyline() throws IOException {
+        assertEquals("", encodedPolylineOf(createZip()));
+    }
+
+    private String createZip() {
+        String path = ZipCreatorEmergency.createEmergencyZip(context, Collections.emptyList(), "SIM Change", null);
+        assertNotNull(path);
+        return path;
+    }
+
+    private static String encodedPolylineOf(String zipPath) throws IOException {
+        JsonObject data = JsonParser.parseString(entryText(zipPath, "emergency_data.json")).getAsJsonObject();
+        return data.get("encodedPolyline").getAsString();
+    }
+
+    private static String entryText(String zipPath, String name) throws IOException {
+        try (ZipFile zip = new ZipFile(zipPath, "zip-password".toCharArray());
+             Reader reader = new InputStreamReader(zip.getInputStream(zip.getFileHeader(name)), StandardCharsets.UTF_8)) {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return text.toString();
+        }
+    }
+
+    private static List<LocationPayload> randomWalk(long from, long to, long step) {
+        Random random = new Random(5);
+        List<LocationPayload> points = new ArrayList<>();
+        double lat = 52.52;
+        double lng = 13.405;
+        for (long t = from; t <= to; t += step) {
+            lat += (random.nextDouble() - 0.5) * 2e-3;
+            lng += (random.nextDouble() - 0.5) * 2e-3;
+            points.add(new LocationPayload(lat, lng, DEVICE_ID, t));
+        }
+        return points;
+    }
+
+    /**
+     * Same decoding as the map page's decodePolyline.
+     */
+    private static List<double[]> decodePolyline(String encoded) {
+        List<double[]> points = new ArrayList<>();
+        int index = 0;
+        long lat = 0;
+        long lng = 0;
+        while (index < encoded.length()) {
+            long[] value = new long[1];
+            index = decodeValue(encoded, index, value);
+            lat += value[0];
+            index = decodeValue(encoded, index, value);
+            lng += value[0];
+            points.add(new double[]{lat / 1e5, lng / 1e5});
+        }
+        return points;
+    }
+
+    private static int decodeValue(String encoded, int index, long[] value) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = encoded.charAt(index++) - 63;
+            result |= (long) (b & 0x1f) << shift;
+            shift += 5;
+        } while (b >= 0x20);
+        value[0] = (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+        return index;
+    }
+}